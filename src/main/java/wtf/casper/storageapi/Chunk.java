@@ -0,0 +1,51 @@
+package wtf.casper.storageapi;
+
+import org.jetbrains.annotations.Nullable;
+
+import wtf.casper.storageapi.id.utils.IdUtils;
+
+import java.util.*;
+
+/**
+ * A slice of a storage read in a stable order.
+ *
+ * @param values the values of this chunk.
+ * @param cursor an opaque position to continue reading after this chunk, or null if there is nothing left.
+ */
+public record Chunk<V>(List<V> values, @Nullable String cursor) {
+
+    public static <V> Chunk<V> empty() {
+        return new Chunk<>(List.of(), null);
+    }
+
+    /**
+     * Pages through values that are already loaded, ordered by the string form of their id.
+     */
+    public static <V> Chunk<V> ofSorted(final Collection<V> values, @Nullable final String cursor, final int limit) {
+        TreeMap<String, V> sorted = new TreeMap<>();
+        for (V value : values) {
+            sorted.put(String.valueOf(IdUtils.getId(value)), value);
+        }
+
+        SortedMap<String, V> remaining = cursor == null ? sorted : sorted.tailMap(cursor, false);
+        List<V> chunk = new ArrayList<>(Math.min(limit, remaining.size()));
+        String last = null;
+        for (Map.Entry<String, V> entry : remaining.entrySet()) {
+            if (chunk.size() >= limit) {
+                break;
+            }
+            chunk.add(entry.getValue());
+            last = entry.getKey();
+        }
+        return of(chunk, last, limit);
+    }
+
+    /**
+     * @param values the values of the chunk.
+     * @param last the cursor of the last value in the chunk.
+     * @param limit the limit the chunk was read with, a smaller chunk means there is nothing left.
+     */
+    public static <V> Chunk<V> of(final List<V> values, @Nullable final String last, final int limit) {
+        return new Chunk<>(values, values.size() < limit ? null : last);
+    }
+}
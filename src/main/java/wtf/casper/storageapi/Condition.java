@@ -1,9 +1,12 @@
 package wtf.casper.storageapi;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
-public record Condition(String key, Object value, ConditionType conditionType, Type type) {
+public record Condition(String key, Object value, ConditionType conditionType, Type type) implements Expression {
     public static Condition of(String key, Object value, ConditionType conditionType, Type type) {
         return new Condition(key, value, conditionType, type);
     }
@@ -20,6 +23,45 @@ public record Condition(String key, Object value, ConditionType conditionType, T
         return new Condition(key, value, conditionType, Type.OR);
     }
 
+    public static Condition in(String key, Collection<?> values) {
+        return new Condition(key, List.copyOf(values), ConditionType.IN, Type.AND);
+    }
+
+    public static Condition notIn(String key, Collection<?> values) {
+        return new Condition(key, List.copyOf(values), ConditionType.NOT_IN, Type.AND);
+    }
+
+    /**
+     * @return a condition matching values from {@code from} to {@code to}, both inclusive.
+     */
+    public static Condition between(String key, Object from, Object to) {
+        return new Condition(key, List.of(from, to), ConditionType.BETWEEN, Type.AND);
+    }
+
+    public static Condition exists(String key, boolean exists) {
+        return new Condition(key, exists, ConditionType.EXISTS, Type.AND);
+    }
+
+    /**
+     * @return a condition matching null as well as missing values.
+     */
+    public static Condition isNull(String key) {
+        return new Condition(key, null, ConditionType.IS_NULL, Type.AND);
+    }
+
+    /**
+     * @return the values of an IN, NOT_IN or BETWEEN condition, which are given as a collection or an array.
+     */
+    public List<?> values() {
+        if (value instanceof Collection<?> collection) {
+            return new ArrayList<>(collection);
+        }
+        if (value instanceof Object[] array) {
+            return Arrays.asList(array);
+        }
+        return Collections.singletonList(value);
+    }
+
     public enum Type {
         AND,
         OR
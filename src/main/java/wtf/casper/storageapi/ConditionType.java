@@ -1,6 +1,20 @@
 package wtf.casper.storageapi;
 
 public enum ConditionType {
-    NOT_ENDS_WITH, STARTS_WITH, NOT_STARTS_WITH, CONTAINS, NOT_CONTAINS, LESS_THAN, NOT_GREATER_THAN_OR_EQUAL_TO, EQUALS, GREATER_THAN, NOT_LESS_THAN_OR_EQUAL_TO, LESS_THAN_OR_EQUAL_TO, NOT_GREATER_THAN, GREATER_THAN_OR_EQUAL_TO, NOT_LESS_THAN, NOT_EQUALS, ENDS_WITH
+    NOT_ENDS_WITH, STARTS_WITH, NOT_STARTS_WITH, CONTAINS, NOT_CONTAINS, LESS_THAN, NOT_GREATER_THAN_OR_EQUAL_TO, EQUALS, GREATER_THAN, NOT_LESS_THAN_OR_EQUAL_TO, LESS_THAN_OR_EQUAL_TO, NOT_GREATER_THAN, GREATER_THAN_OR_EQUAL_TO, NOT_LESS_THAN, NOT_EQUALS, ENDS_WITH,
+    /**
+     * Full-text search over the fields of the text index of the storage, see {@link FieldStorage#textIndex(String...)}.
+     * The key of the condition is ignored.
+     */
+    TEXT_MATCH,
+    /**
+     * Case-insensitive variants, which use the indexes of {@link FieldStorage#indexIgnoreCase(String)}.
+     * Mongo can't combine them with case-sensitive string comparisons in one query.
+     */
+    EQUALS_IGNORE_CASE, STARTS_WITH_IGNORE_CASE,
+    /**
+     * Set and range conditions, see the factories in {@link Condition} for the shape of their values.
+     */
+    IN, NOT_IN, BETWEEN, EXISTS, IS_NULL
 
 }
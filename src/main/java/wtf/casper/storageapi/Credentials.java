@@ -3,6 +3,8 @@ package wtf.casper.storageapi;
 import lombok.*;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.List;
+
 @Getter
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
 @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
@@ -27,6 +29,42 @@ public final class Credentials {
     private String uri;
     @Nullable
     private Integer port;
+    @Nullable
+    private Boolean trackChanges;
+    @Nullable
+    private Long trackedValues;
+    @Nullable
+    private List<String> replicas;
+    @Nullable
+    private Long bloomFilterKeys;
+    @Nullable
+    private Integer minPoolSize;
+    @Nullable
+    private Integer maxPoolSize;
+    @Nullable
+    private Long idleTimeout;
+    @Nullable
+    private Long maxWaitTime;
+    @Nullable
+    private Integer statementCacheSize;
+    @Nullable
+    private Integer fetchSize;
+    @Nullable
+    private String readPreference;
+    @Nullable
+    private String writeConcern;
+    @Nullable
+    private List<String> compressors;
+    @Nullable
+    private Boolean binaryKeys;
+    @Nullable
+    private String payloadCompression;
+    @Nullable
+    private Integer payloadCompressionThreshold;
+    @Nullable
+    private Boolean nativeJson;
+    @Nullable
+    private String shardName;
 
     public StorageType getType(StorageType defaultValue) {
         return type == null ? defaultValue : type;
@@ -63,4 +101,137 @@ public final class Credentials {
     public int getPort(int defaultValue) {
         return port == null ? defaultValue : port;
     }
+
+    /**
+     * @return the read replica hosts (host or host:port) that reads are routed to, writes always go to {@link #getHost()}.
+     */
+    public List<String> getReplicas(List<String> defaultValue) {
+        return replicas == null || replicas.isEmpty() ? defaultValue : replicas;
+    }
+
+    /**
+     * @return whether storages should remember loaded values and skip or patch unchanged saves.
+     */
+    public boolean getTrackChanges(boolean defaultValue) {
+        return trackChanges == null ? defaultValue : trackChanges;
+    }
+
+    /**
+     * @return the maximum amount of loaded values a snapshot is kept of when changes are tracked.
+     */
+    public long getTrackedValues(long defaultValue) {
+        return trackedValues == null ? defaultValue : trackedValues;
+    }
+
+    /**
+     * @return the expected amount of keys for the bloom filter that answers contains checks for missing keys,
+     * 0 disables the filter.
+     */
+    public long getBloomFilterKeys(long defaultValue) {
+        return bloomFilterKeys == null ? defaultValue : bloomFilterKeys;
+    }
+
+    /**
+     * @return the minimum amount of connections the pool keeps open.
+     * Pools are shared by all storages on the same database (sql) or uri (mongo), the first storage decides their settings.
+     */
+    public int getMinPoolSize(int defaultValue) {
+        return minPoolSize == null ? defaultValue : minPoolSize;
+    }
+
+    /**
+     * @return the maximum amount of connections in the pool, per server for mongo.
+     */
+    public int getMaxPoolSize(int defaultValue) {
+        return maxPoolSize == null ? defaultValue : maxPoolSize;
+    }
+
+    /**
+     * @return the milliseconds after which unused connections above the minimum are closed, 0 keeps all connections open.
+     */
+    public long getIdleTimeout(long defaultValue) {
+        return idleTimeout == null ? defaultValue : idleTimeout;
+    }
+
+    /**
+     * @return the milliseconds an operation waits for a free connection before failing.
+     */
+    public long getMaxWaitTime(long defaultValue) {
+        return maxWaitTime == null ? defaultValue : maxWaitTime;
+    }
+
+    /**
+     * @return the amount of prepared statements the driver caches per connection, 0 disables the cache.
+     */
+    public int getStatementCacheSize(int defaultValue) {
+        return statementCacheSize == null ? defaultValue : statementCacheSize;
+    }
+
+    /**
+     * @return the amount of rows the driver reads per round trip for large results, 0 reads the whole result at once.
+     */
+    public int getFetchSize(int defaultValue) {
+        return fetchSize == null ? defaultValue : fetchSize;
+    }
+
+    /**
+     * @return the mongo read preference, e.g. "secondaryPreferred".
+     */
+    public String getReadPreference(String defaultValue) {
+        return readPreference == null ? defaultValue : readPreference;
+    }
+
+    /**
+     * @return the mongo write concern, e.g. "majority" or "w1".
+     */
+    public String getWriteConcern(String defaultValue) {
+        return writeConcern == null ? defaultValue : writeConcern;
+    }
+
+    /**
+     * @return the wire compressors in order of preference ("zstd", "snappy" or "zlib"), empty disables compression.
+     * Mongo negotiates the first one the server supports, the sql drivers only support zlib and enable it for any compressor.
+     */
+    public List<String> getCompressors(List<String> defaultValue) {
+        return compressors == null ? defaultValue : compressors;
+    }
+
+    /**
+     * @return whether uuid ids are stored in their 16 byte binary form instead of a 36 character string,
+     * existing string ids have to be converted once with the convertKeys method of the storage.
+     */
+    public boolean getBinaryKeys(boolean defaultValue) {
+        return binaryKeys == null ? defaultValue : binaryKeys;
+    }
+
+    /**
+     * @return the algorithm stored values are compressed with ("lz4" or "zstd"), null stores plain json.
+     * Only supported by the sql keyed storages.
+     */
+    public String getPayloadCompression(String defaultValue) {
+        return payloadCompression == null ? defaultValue : payloadCompression;
+    }
+
+    /**
+     * @return the size in bytes from which stored values are compressed.
+     */
+    public int getPayloadCompressionThreshold(int defaultValue) {
+        return payloadCompressionThreshold == null ? defaultValue : payloadCompressionThreshold;
+    }
+
+    /**
+     * @return whether documents are kept in a native json column instead of text, existing tables are converted.
+     * Only supported by MariaDBFStorage.
+     */
+    public boolean getNativeJson(boolean defaultValue) {
+        return nativeJson == null ? defaultValue : nativeJson;
+    }
+
+    /**
+     * @return the name that places this shard on the ring of a ShardedKeyedStorage, it must never change once values were written.
+     * Without a name the connection details without the credentials are used, so they must not change either.
+     */
+    public String getShardName(String defaultValue) {
+        return shardName == null ? defaultValue : shardName;
+    }
 }
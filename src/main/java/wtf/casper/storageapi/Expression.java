@@ -0,0 +1,76 @@
+package wtf.casper.storageapi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A tree of conditions combined with and, or and not, e.g. {@code and(or(a, b), or(c, d))}.
+ * The {@link Condition.Type} of conditions in a tree is ignored, the tree alone decides how they are combined.
+ */
+public sealed interface Expression permits Condition, Expression.And, Expression.Or, Expression.Not {
+
+    static Expression and(Expression... expressions) {
+        return new And(List.of(expressions));
+    }
+
+    static Expression or(Expression... expressions) {
+        return new Or(List.of(expressions));
+    }
+
+    static Expression not(Expression expression) {
+        return new Not(expression);
+    }
+
+    /**
+     * Converts conditions that are combined by their {@link Condition.Type} into a tree, see {@link Condition#group(Condition...)}.
+     */
+    static Expression of(List<Condition> conditions) {
+        List<Expression> groups = new ArrayList<>();
+        for (List<Condition> group : Condition.group(conditions.toArray(new Condition[0]))) {
+            groups.add(group.size() == 1 ? group.get(0) : new And(List.copyOf(group)));
+        }
+        return groups.size() == 1 ? groups.get(0) : new Or(groups);
+    }
+
+    /**
+     * @return the conditions of the tree in order.
+     */
+    default List<Condition> conditions() {
+        List<Condition> conditions = new ArrayList<>();
+        collect(this, conditions);
+        return conditions;
+    }
+
+    private static void collect(Expression expression, List<Condition> conditions) {
+        if (expression instanceof Condition condition) {
+            conditions.add(condition);
+        } else if (expression instanceof And and) {
+            and.expressions().forEach(child -> collect(child, conditions));
+        } else if (expression instanceof Or or) {
+            or.expressions().forEach(child -> collect(child, conditions));
+        } else if (expression instanceof Not not) {
+            collect(not.expression(), conditions);
+        }
+    }
+
+    /**
+     * Matches if all expressions match, an empty and always matches.
+     */
+    record And(List<Expression> expressions) implements Expression {
+        public And {
+            expressions = List.copyOf(expressions);
+        }
+    }
+
+    /**
+     * Matches if any expression matches, an empty or never matches.
+     */
+    record Or(List<Expression> expressions) implements Expression {
+        public Or {
+            expressions = List.copyOf(expressions);
+        }
+    }
+
+    record Not(Expression expression) implements Expression {
+    }
+}
@@ -1,9 +1,20 @@
 package wtf.casper.storageapi;
 
+import com.google.gson.JsonElement;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.id.UpdatedAt;
+import wtf.casper.storageapi.id.utils.IdUtils;
+import wtf.casper.storageapi.misc.Dump;
+import wtf.casper.storageapi.misc.Migration;
+import wtf.casper.storageapi.misc.Sync;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
 
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
 public interface FieldStorage<K, V> {
@@ -16,6 +27,66 @@ public interface FieldStorage<K, V> {
      */
     CompletableFuture<Collection<V>> get(Query query);
 
+    /**
+     * Counts the values that match the conditions of the query, limit, offset and sorts are ignored.
+     * The default implementation loads all matching values.
+     *
+     * @param query the query to count the matches of.
+     * @return a future that will complete with the amount of matching values.
+     */
+    default CompletableFuture<Long> count(final Query query) {
+        return get(query.unpaged()).thenApply(values -> (long) values.size());
+    }
+
+    /**
+     * @return a future that will complete with the approximate amount of values in the storage,
+     * this is read from metadata and can be off after recent writes.
+     */
+    default CompletableFuture<Long> estimatedCount() {
+        return count(Query.of());
+    }
+
+    /**
+     * @param query the query to execute.
+     * @return a future that will complete with the matching values and the amount of matches without limit and offset.
+     */
+    default CompletableFuture<Page<V>> getWithTotal(final Query query) {
+        return get(query).thenCombine(count(query), (values, total) -> new Page<>(new ArrayList<>(values), total));
+    }
+
+    /**
+     * Reads the distinct values of a field of the matching values, without loading the values themselves.
+     * The limit and offset of the filter apply to the distinct values, its sorts are ignored.
+     * The default implementation loads all matching values.
+     *
+     * @param field  the dotted path of the field.
+     * @param filter the query the values have to match.
+     * @param type   the type the field values are read as.
+     * @return a future that will complete with the distinct values, missing and null values are left out.
+     */
+    default <T> CompletableFuture<List<T>> distinct(final String field, final Query filter, final Class<T> type) {
+        return get(filter.unpaged()).thenApply(values -> {
+            Set<JsonElement> distinct = new LinkedHashSet<>();
+            for (V value : values) {
+                JsonElement element = StorageAPIConstants.getGson().toJsonTree(value);
+                for (String key : field.split("\\.")) {
+                    element = element != null && element.isJsonObject() ? element.getAsJsonObject().get(key) : null;
+                }
+                if (element != null && !element.isJsonNull()) {
+                    distinct.add(element);
+                }
+            }
+
+            List<T> result = new ArrayList<>();
+            for (JsonElement element : distinct) {
+                result.add(StorageAPIConstants.getGson().fromJson(element, type));
+            }
+            int from = Math.min(filter.offset(), result.size());
+            int to = filter.limit() > 0 ? Math.min(from + filter.limit(), result.size()) : result.size();
+            return new ArrayList<>(result.subList(from, to));
+        });
+    }
+
     /**
      * @param query The query to remove
      */
@@ -64,10 +135,85 @@ public interface FieldStorage<K, V> {
      * @return a future that will complete with a boolean that represents whether the migration was successful.
      */
     default CompletableFuture<Boolean> migrate(final FieldStorage<K, V> storage) {
-        return CompletableFuture.supplyAsync(() -> {
-            storage.allValues().thenAccept(this::saveAll).join();
-            return true;
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        return migration(storage).build().run().thenApply(count -> true);
+    }
+
+    /**
+     * Streams all values to a file in chunks, see {@link Dump}.
+     * @param path the file to write, it is replaced if it exists.
+     * @param format the format of the file.
+     * @return a future that will complete with the amount of exported values.
+     */
+    default CompletableFuture<Long> export(final Path path, final Dump.Format format) {
+        return Dump.export(this::chunk, path, format, 1000);
+    }
+
+    /**
+     * Saves the values of a file written by {@link #export(Path, Dump.Format)} in parallel batches, the format is detected from the file.
+     * @param path the file to read.
+     * @return a future that will complete with the amount of imported values.
+     */
+    default CompletableFuture<Long> importFrom(final Path path) {
+        return importFrom(path, Dump.valueClass(this));
+    }
+
+    /**
+     * @param path the file to read.
+     * @param type the class of the values in the file.
+     * @return a future that will complete with the amount of imported values.
+     */
+    default CompletableFuture<Long> importFrom(final Path path, final Class<V> type) {
+        return Dump.importFrom(path, type, this::saveAll, 1000, 4);
+    }
+
+    /**
+     * @param storage the storage to migrate from.
+     * @return a migration from the given storage to this storage that can be configured further, see {@link Migration}.
+     */
+    default Migration.MigrationBuilder<V> migration(final FieldStorage<K, V> storage) {
+        return Migration.<V>builder()
+                .source(storage::chunk)
+                .target(this::saveAll)
+                .counter(storage::estimatedCount);
+    }
+
+    /**
+     * Reads the values in a stable order, implementations should override this to page on the database.
+     * The default implementation loads all values for every chunk.
+     *
+     * @param cursor the cursor of the previous chunk or null to start at the beginning.
+     * @param limit the maximum amount of values in the chunk.
+     * @return a future that will complete with the next chunk of values.
+     */
+    default CompletableFuture<Chunk<V>> chunk(@Nullable final String cursor, final int limit) {
+        return allValues().thenApply(values -> Chunk.ofSorted(values, cursor, limit));
+    }
+
+    /**
+     * Reads the values that were written at or after the given time, ordered like {@link #chunk(String, int)}.
+     * Values are only filtered if they have an {@link UpdatedAt} field, otherwise every value counts as changed.
+     * The default implementation loads all values for every chunk.
+     *
+     * @param since the time in epoch milliseconds.
+     * @param cursor the cursor of the previous chunk or null to start at the beginning.
+     * @param limit the maximum amount of values in the chunk.
+     * @return a future that will complete with the next chunk of changed values.
+     */
+    default CompletableFuture<Chunk<V>> changedSince(final long since, @Nullable final String cursor, final int limit) {
+        return allValues().thenApply(values -> Chunk.ofSorted(values.stream().filter(value -> {
+            Long updatedAt = IdUtils.getUpdatedAt(value);
+            return updatedAt == null || updatedAt >= since;
+        }).toList(), cursor, limit));
+    }
+
+    /**
+     * @param storage the storage to copy changed values from.
+     * @return a sync from the given storage to this storage that can be configured further, see {@link Sync}.
+     */
+    default Sync.SyncBuilder<V> sync(final FieldStorage<K, V> storage) {
+        return Sync.<V>builder()
+                .source(storage::changedSince)
+                .target(this::saveAll);
     }
 
     /**
@@ -78,7 +224,8 @@ public interface FieldStorage<K, V> {
     /**
      * Adds an index to the storage.
      * @param field the field to add an index for.
-     * @return a future that will complete when the index has been added.
+     * @return a future that will complete when the index has been added,
+     * or fail with an {@link UnsupportedOperationException} if the storage can't index the field.
      */
     CompletableFuture<Void> index(String field);
 
@@ -88,4 +235,26 @@ public interface FieldStorage<K, V> {
      * @return a future that will complete when the index has been removed.
      */
     CompletableFuture<Void> unindex(String field);
+
+    /**
+     * Adds a case-insensitive index, which {@link ConditionType#EQUALS_IGNORE_CASE} and {@link ConditionType#STARTS_WITH_IGNORE_CASE} conditions use.
+     * It is removed together with the index of {@link #index(String)}.
+     * @param field the string field to add an index for.
+     * @return a future that will complete when the index has been added,
+     * or fail with an {@link UnsupportedOperationException} if the storage has no case-insensitive indexes.
+     */
+    default CompletableFuture<Void> indexIgnoreCase(final String field) {
+        return CompletableFuture.failedFuture(new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support case-insensitive indexes"));
+    }
+
+    /**
+     * Replaces the full-text index of the storage, which {@link ConditionType#TEXT_MATCH} conditions search.
+     * A storage has a single text index, it covers all the given fields.
+     * @param fields the string fields to search.
+     * @return a future that will complete when the index has been built,
+     * or fail with an {@link UnsupportedOperationException} if the storage has no full-text search.
+     */
+    default CompletableFuture<Void> textIndex(final String... fields) {
+        return CompletableFuture.failedFuture(new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support full-text indexes"));
+    }
 }
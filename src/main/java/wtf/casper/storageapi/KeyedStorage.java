@@ -1,15 +1,31 @@
 package wtf.casper.storageapi;
 
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.id.TimeToLive;
+import wtf.casper.storageapi.id.UpdatedAt;
+import wtf.casper.storageapi.id.exceptions.VersionConflictException;
+import wtf.casper.storageapi.id.utils.IdUtils;
 import wtf.casper.storageapi.misc.ConstructableValue;
+import wtf.casper.storageapi.misc.Dump;
 import wtf.casper.storageapi.misc.KeyValue;
+import wtf.casper.storageapi.misc.Migration;
+import wtf.casper.storageapi.misc.SchemaTransform;
+import wtf.casper.storageapi.misc.Sync;
 import wtf.casper.storageapi.utils.ReflectionUtil;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
 
+import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.locks.Lock;
+import java.util.function.UnaryOperator;
 
 public interface KeyedStorage<K, V> {
 
@@ -20,6 +36,16 @@ public interface KeyedStorage<K, V> {
      */
     CompletableFuture<V> get(final K key);
 
+    /**
+     * @param key the key to search for.
+     * @param primary whether the value must be read from the primary instead of a replica or cache,
+     *                use this when the read must see writes that were just made.
+     * @return a future that will complete with the value that matches the given key.
+     */
+    default CompletableFuture<V> get(final K key, final boolean primary) {
+        return get(key);
+    }
+
     /**
      * @param key the key to search for.
      * @return a future that will complete with the value that matches the given key or a generated value if not found.
@@ -74,6 +100,18 @@ public interface KeyedStorage<K, V> {
      */
     CompletableFuture<Void> save(final V value);
 
+    /**
+     * Saves the value so that it expires after the given time, expired values are never returned
+     * and are eventually deleted by the storage. A later save without a ttl stores the value without an expiry,
+     * unless its class has a {@link TimeToLive}.
+     *
+     * @param value the value to save.
+     * @param ttl the time after which the value expires.
+     */
+    default CompletableFuture<Void> save(final V value, final Duration ttl) {
+        return CompletableFuture.failedFuture(new UnsupportedOperationException(getClass().getSimpleName() + " doesn't support expiring values"));
+    }
+
     /**
      * @param values the values to save.
      */
@@ -103,6 +141,69 @@ public interface KeyedStorage<K, V> {
         return CompletableFuture.completedFuture(null);
     }
 
+    /**
+     * Atomically updates the value of a key, see {@link #compute(Object, UnaryOperator, int)}.
+     */
+    default CompletableFuture<V> compute(final K key, final UnaryOperator<V> function) {
+        return compute(key, function, 5);
+    }
+
+    /**
+     * Reads the value of a key, applies the function and writes the result back with {@link #replace(Object, Long)}.
+     * If the value was changed by someone else in the meantime the cycle is retried.
+     * Calls for the same key inside this jvm are serialized with a local lock, so only other processes can cause retries.
+     *
+     * @param key the key to update.
+     * @param function receives the current value (or null if absent) and returns the new value, returning null removes the value.
+     * @param attempts the maximum amount of read-modify-write cycles before failing with a {@link VersionConflictException}.
+     * @return a future that will complete with the value that was written.
+     */
+    default CompletableFuture<V> compute(final K key, final UnaryOperator<V> function, final int attempts) {
+        return CompletableFuture.supplyAsync(() -> {
+            Lock lock = StorageAPIConstants.KEY_LOCKS.get(List.of(this, key));
+            lock.lock();
+            try {
+                for (int attempt = 0; attempt < attempts; attempt++) {
+                    V current = get(key, true).join();
+                    Field versionField = current == null ? null : IdUtils.getVersionField(current.getClass());
+                    Long expectedVersion = current == null ? null : versionField == null ? 0L : IdUtils.getVersion(versionField, current);
+
+                    V updated = function.apply(current);
+                    if (updated == null) {
+                        if (current != null) {
+                            remove(current).join();
+                        }
+                        return null;
+                    }
+
+                    if (replace(updated, expectedVersion).join()) {
+                        return updated;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            throw new CompletionException(new VersionConflictException(key, attempts));
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    /**
+     * Writes the value only if the stored value still has the expected version, the version of the written value is
+     * set to the expected version + 1. Values without a {@link wtf.casper.storageapi.id.Version} field are saved unconditionally.
+     *
+     * @param value the value to write.
+     * @param expectedVersion the version the stored value must have, or null if the value must not exist yet.
+     * @return a future that will complete with whether the value was written.
+     */
+    default CompletableFuture<Boolean> replace(final V value, @Nullable final Long expectedVersion) {
+        Field versionField = IdUtils.getVersionField(value.getClass());
+        if (versionField != null) {
+            IdUtils.setVersion(versionField, value, expectedVersion == null ? 1 : expectedVersion + 1);
+        }
+        return save(value).thenApply(v -> true);
+    }
+
     /**
      * @param key the key to check for.
      * @return a future that will complete with a boolean that represents whether the storage contains a value that matches the given field and value.
@@ -111,16 +212,122 @@ public interface KeyedStorage<K, V> {
         return CompletableFuture.supplyAsync(() -> get(key).join() != null, StorageAPIConstants.DB_THREAD_POOL);
     }
 
+    /**
+     * @return a future that will complete with the approximate amount of values in the storage,
+     * or -1 if the storage can't tell without reading them. Used for the eta of migrations.
+     */
+    default CompletableFuture<Long> estimatedSize() {
+        return CompletableFuture.completedFuture(-1L);
+    }
+
     /**
      * @param storage the storage to migrate from. The data will be copied from the given storage to this storage.
      * @return a future that will complete with a boolean that represents whether the migration was successful.
      */
     default CompletableFuture<Boolean> migrate(final KeyedStorage<K, V> storage) {
-        return CompletableFuture.supplyAsync(() -> {
-            Collection<V> vs = storage.allValues().join();
-            saveAll(vs).join(); // save all will batch if the implementation supports it (mongo for example)
-            return true;
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        return migration(storage).build().run().thenApply(count -> true);
+    }
+
+    /**
+     * Streams all values to a file in chunks, see {@link Dump}.
+     * @param path the file to write, it is replaced if it exists.
+     * @param format the format of the file.
+     * @return a future that will complete with the amount of exported values.
+     */
+    default CompletableFuture<Long> export(final Path path, final Dump.Format format) {
+        return Dump.export(this::chunk, path, format, 1000);
+    }
+
+    /**
+     * Saves the values of a file written by {@link #export(Path, Dump.Format)} in parallel batches, the format is detected from the file.
+     * @param path the file to read.
+     * @return a future that will complete with the amount of imported values.
+     */
+    default CompletableFuture<Long> importFrom(final Path path) {
+        return importFrom(path, Dump.valueClass(this));
+    }
+
+    /**
+     * @param path the file to read.
+     * @param type the class of the values in the file.
+     * @return a future that will complete with the amount of imported values.
+     */
+    default CompletableFuture<Long> importFrom(final Path path, final Class<V> type) {
+        return Dump.importFrom(path, type, this::saveAll, 1000, 4);
+    }
+
+    /**
+     * @param storage the storage to migrate from.
+     * @return a migration from the given storage to this storage that can be configured further, see {@link Migration}.
+     */
+    default Migration.MigrationBuilder<V> migration(final KeyedStorage<K, V> storage) {
+        return Migration.<V>builder()
+                .source(storage::chunk)
+                .target(this::saveAll)
+                .counter(storage::estimatedSize);
+    }
+
+    /**
+     * Reads the values ordered by their id, implementations should override this to page on the database.
+     * The default implementation loads all values for every chunk.
+     *
+     * @param cursor the cursor of the previous chunk or null to start at the beginning.
+     * @param limit the maximum amount of values in the chunk.
+     * @return a future that will complete with the next chunk of values.
+     */
+    default CompletableFuture<Chunk<V>> chunk(@Nullable final String cursor, final int limit) {
+        return allValues().thenApply(values -> Chunk.ofSorted(values, cursor, limit));
+    }
+
+    /**
+     * Reads the values that were written at or after the given time, ordered like {@link #chunk(String, int)}.
+     * Values are only filtered if they have an {@link UpdatedAt} field, otherwise every value counts as changed.
+     * The default implementation loads all values for every chunk.
+     *
+     * @param since the time in epoch milliseconds.
+     * @param cursor the cursor of the previous chunk or null to start at the beginning.
+     * @param limit the maximum amount of values in the chunk.
+     * @return a future that will complete with the next chunk of changed values.
+     */
+    default CompletableFuture<Chunk<V>> changedSince(final long since, @Nullable final String cursor, final int limit) {
+        return allValues().thenApply(values -> Chunk.ofSorted(values.stream().filter(value -> {
+            Long updatedAt = IdUtils.getUpdatedAt(value);
+            return updatedAt == null || updatedAt >= since;
+        }).toList(), cursor, limit));
+    }
+
+    /**
+     * @param storage the storage to copy changed values from.
+     * @return a sync from the given storage to this storage that can be configured further, see {@link Sync}.
+     */
+    default Sync.SyncBuilder<V> sync(final KeyedStorage<K, V> storage) {
+        return Sync.<V>builder()
+                .source(storage::changedSince)
+                .target(this::saveAll);
+    }
+
+    /**
+     * Reads the ids in the order of {@link #chunk(String, int)}, implementations should override this to only read the ids.
+     *
+     * @param cursor the last id of the previous chunk or null to start at the beginning.
+     * @param limit the maximum amount of ids in the chunk.
+     * @return a future that will complete with the next chunk of ids.
+     */
+    default CompletableFuture<Chunk<String>> keys(@Nullable final String cursor, final int limit) {
+        return chunk(cursor, limit).thenApply(chunk -> new Chunk<>(
+                chunk.values().stream().map(value -> String.valueOf(IdUtils.getId(value))).toList(),
+                chunk.cursor()
+        ));
+    }
+
+    /**
+     * Applies the changes of the transform to every value in the storage in chunks, see {@link SchemaTransform}.
+     * The default implementation reads, changes and saves the values.
+     *
+     * @return a future that will complete with the amount of visited values.
+     */
+    default CompletableFuture<Long> transform(final SchemaTransform transform) {
+        return transform.run(this::chunk, this::saveAll);
     }
 
     CompletableFuture<Void> renameField(String path, String newPath);
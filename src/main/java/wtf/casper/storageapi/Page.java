@@ -0,0 +1,12 @@
+package wtf.casper.storageapi;
+
+import java.util.List;
+
+/**
+ * A page of query results together with the amount of values that match the query without limit and offset.
+ *
+ * @param values the values of this page.
+ * @param total the total amount of matching values.
+ */
+public record Page<V>(List<V> values, long total) {
+}
@@ -1,8 +1,11 @@
 package wtf.casper.storageapi;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 
+import org.jetbrains.annotations.Nullable;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -10,21 +13,56 @@ import java.util.List;
 @Accessors(fluent = true)
 public class Query {
     private final List<Condition> conditions = new ArrayList<>();
+    @Getter(AccessLevel.NONE)
+    @Nullable
+    private Expression where;
     private final List<Sort> sorts = new ArrayList<>();
     private final List<Aggregation> aggregations = new ArrayList<>();
     private boolean distinct = false;
     private int limit = -1;
     private int offset = 0;
+    private boolean primary = false;
 
     public static Query of() {
         return new Query();
     }
 
+    /**
+     * @return a copy of this query with only its conditions, used to count all matches of a paged query.
+     */
+    public Query unpaged() {
+        Query query = new Query();
+        query.conditions.addAll(conditions);
+        query.where = where;
+        query.primary = primary;
+        return query;
+    }
+
     public Query condition(Condition conditions) {
         this.conditions.add(conditions);
         return this;
     }
 
+    /**
+     * @param where the conditions as a tree, which is combined with the conditions added by {@link #condition(Condition)} by and.
+     */
+    public Query where(Expression where) {
+        this.where = where;
+        return this;
+    }
+
+    /**
+     * @return all conditions of the query as a tree or null if it has none.
+     */
+    @Nullable
+    public Expression expression() {
+        if (conditions.isEmpty()) {
+            return where;
+        }
+        Expression legacy = Expression.of(conditions);
+        return where == null ? legacy : Expression.and(where, legacy);
+    }
+
     public Query sort(Sort sorts) {
         this.sorts.add(sorts);
         return this;
@@ -49,4 +87,13 @@ public class Query {
         this.offset = offset;
         return this;
     }
+
+    /**
+     * @param primary whether the query must be read from the primary instead of a replica,
+     *                use this when the query must see writes that were just made.
+     */
+    public Query primary(boolean primary) {
+        this.primary = primary;
+        return this;
+    }
 }
@@ -6,6 +6,22 @@ import lombok.experimental.Accessors;
 @Data
 @Accessors(fluent = true)
 public class Sort {
+    /**
+     * The field to sort by the relevance of a {@link ConditionType#TEXT_MATCH} condition.
+     */
+    public static final String RELEVANCE = "$relevance";
+
     private final String field;
     private final SortingType sortingType;
+
+    /**
+     * @return a sort by the relevance of the text match of the query, best matches first.
+     */
+    public static Sort relevance() {
+        return new Sort(RELEVANCE, SortingType.DESCENDING);
+    }
+
+    public boolean isRelevance() {
+        return RELEVANCE.equals(field);
+    }
 }
@@ -0,0 +1,21 @@
+package wtf.casper.storageapi.id;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes every saved value of the class expire after the given time, each save starts the time again.
+ * Expired values are never returned and are eventually deleted by the storage.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({
+        ElementType.TYPE
+})
+public @interface TimeToLive {
+    long value();
+
+    TimeUnit unit() default TimeUnit.SECONDS;
+}
@@ -0,0 +1,17 @@
+package wtf.casper.storageapi.id;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a long field that is set to the current time in epoch milliseconds whenever a value is written.
+ * Storages use it to find the values that changed since a point in time, see {@link wtf.casper.storageapi.misc.Sync}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({
+        ElementType.FIELD
+})
+public @interface UpdatedAt {
+}
@@ -0,0 +1,18 @@
+package wtf.casper.storageapi.id;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a numeric (int/long) field as the version of a value.
+ * The version is incremented on every {@link wtf.casper.storageapi.KeyedStorage#compute} write and
+ * used to reject writes that were based on an outdated copy of the value.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({
+        ElementType.FIELD
+})
+public @interface Version {
+}
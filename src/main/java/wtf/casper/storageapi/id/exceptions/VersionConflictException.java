@@ -0,0 +1,9 @@
+package wtf.casper.storageapi.id.exceptions;
+
+public class VersionConflictException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public VersionConflictException(Object key, int attempts) {
+        super("Value with key " + key + " was modified concurrently, gave up after " + attempts + " attempts");
+    }
+}
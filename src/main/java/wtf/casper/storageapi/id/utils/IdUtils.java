@@ -1,11 +1,17 @@
 package wtf.casper.storageapi.id.utils;
 
+import org.jetbrains.annotations.Nullable;
 import wtf.casper.storageapi.id.Id;
+import wtf.casper.storageapi.id.TimeToLive;
+import wtf.casper.storageapi.id.UpdatedAt;
+import wtf.casper.storageapi.id.Version;
 import wtf.casper.storageapi.id.exceptions.IdNotFoundException;
 
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -191,4 +197,103 @@ public final class IdUtils {
             return null;
         }
     }
+
+    /**
+     * @return the field annotated with {@link Version} or null if the type is not versioned.
+     */
+    @Nullable
+    public static Field getVersionField(final Class<?> type) {
+        return getAnnotatedField(type, Version.class);
+    }
+
+    /**
+     * @return the field annotated with {@link UpdatedAt} or null if the type doesn't track modification times.
+     */
+    @Nullable
+    public static Field getUpdatedAtField(final Class<?> type) {
+        return getAnnotatedField(type, UpdatedAt.class);
+    }
+
+    /**
+     * Sets the {@link UpdatedAt} field of the value to the current time.
+     * @return whether the value has an {@link UpdatedAt} field.
+     */
+    public static boolean touch(final Object instance) {
+        Field field = getUpdatedAtField(instance.getClass());
+        if (field == null) {
+            return false;
+        }
+
+        try {
+            field.set(instance, System.currentTimeMillis());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Could not write updated at field " + field.getName(), e);
+        }
+        return true;
+    }
+
+    /**
+     * @return the {@link UpdatedAt} time of the value or null if it doesn't have one.
+     */
+    @Nullable
+    public static Long getUpdatedAt(final Object instance) {
+        Field field = getUpdatedAtField(instance.getClass());
+        if (field == null) {
+            return null;
+        }
+
+        try {
+            Object time = field.get(instance);
+            return time == null ? null : ((Number) time).longValue();
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Could not read updated at field " + field.getName(), e);
+        }
+    }
+
+    /**
+     * @return the {@link TimeToLive} of the type or null if its values don't expire.
+     */
+    @Nullable
+    public static Duration getTimeToLive(final Class<?> type) {
+        TimeToLive timeToLive = type.getAnnotation(TimeToLive.class);
+        if (timeToLive == null) {
+            return null;
+        }
+        return Duration.ofMillis(timeToLive.unit().toMillis(timeToLive.value()));
+    }
+
+    @Nullable
+    private static Field getAnnotatedField(final Class<?> type, final Class<? extends Annotation> annotation) {
+        for (Field field : type.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+                continue;
+            }
+
+            if (field.isAnnotationPresent(annotation)) {
+                field.setAccessible(true);
+                return field;
+            }
+        }
+        return null;
+    }
+
+    public static long getVersion(final Field field, final Object instance) {
+        try {
+            return ((Number) field.get(instance)).longValue();
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Could not read version field " + field.getName(), e);
+        }
+    }
+
+    public static void setVersion(final Field field, final Object instance, final long version) {
+        try {
+            if (field.getType() == int.class || field.getType() == Integer.class) {
+                field.set(instance, (int) version);
+            } else {
+                field.set(instance, version);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Could not write version field " + field.getName(), e);
+        }
+    }
 }
@@ -0,0 +1,259 @@
+package wtf.casper.storageapi.impl.fstorage;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Getter;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.*;
+import wtf.casper.storageapi.id.utils.IdUtils;
+import wtf.casper.storageapi.misc.ConditionMatcher;
+import wtf.casper.storageapi.misc.Dump;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Caches the results of queries on another field storage.
+ * Cached results are dropped after the ttl, when the cache is full, and on writes through this storage.
+ * A saved value only drops the plain query results it could appear in: the ones whose conditions it matches
+ * and the ones that contain its id. Counts, totals and results with an offset depend on values that aren't part of
+ * the result, so they are dropped on every write. Writes made by other processes are only seen after the ttl.
+ * Queries that must read from the primary bypass the cache.
+ */
+public class CachedFieldStorage<K, V> implements FieldStorage<K, V> {
+
+    @Getter
+    private final FieldStorage<K, V> delegate;
+    private final Cache<Key, Entry> cache;
+    // loads that started before a write must not put their possibly outdated result into the cache
+    private final AtomicLong generation = new AtomicLong();
+
+    public CachedFieldStorage(final FieldStorage<K, V> delegate, final Duration ttl, final long maximumSize) {
+        this.delegate = delegate;
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    @Override
+    public CompletableFuture<Collection<V>> get() {
+        return cached(new Key(Kind.ALL, Query.of()), delegate::get, values -> values(values, true));
+    }
+
+    @Override
+    public CompletableFuture<Collection<V>> get(Query query) {
+        if (query.primary()) {
+            return delegate.get(query);
+        }
+        return cached(new Key(Kind.GET, query), () -> delegate.get(query), values -> values(values, query.offset() <= 0));
+    }
+
+    @Override
+    public CompletableFuture<Long> count(Query query) {
+        if (query.primary()) {
+            return delegate.count(query);
+        }
+        return cached(new Key(Kind.COUNT, query.unpaged()), () -> delegate.count(query), count -> new Entry(count, null));
+    }
+
+    @Override
+    public CompletableFuture<Page<V>> getWithTotal(Query query) {
+        if (query.primary()) {
+            return delegate.getWithTotal(query);
+        }
+        return cached(new Key(Kind.PAGE, query), () -> delegate.getWithTotal(query), page -> new Entry(page, null));
+    }
+
+    @Override
+    public CompletableFuture<Long> estimatedCount() {
+        return delegate.estimatedCount();
+    }
+
+    @Override
+    public CompletableFuture<Void> remove(Query query) {
+        return write(() -> delegate.remove(query), null);
+    }
+
+    @Override
+    public CompletableFuture<List<AggregationResult>> aggregate(Query query) {
+        return delegate.aggregate(query);
+    }
+
+    @Override
+    public CompletableFuture<Void> save(V value) {
+        return write(() -> delegate.save(value), List.of(value));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAll(Collection<V> values) {
+        return write(() -> delegate.saveAll(values), values);
+    }
+
+    @Override
+    public CompletableFuture<Void> write() {
+        return delegate.write();
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAll() {
+        return write(delegate::deleteAll, null);
+    }
+
+    @Override
+    public CompletableFuture<Void> close() {
+        cache.invalidateAll();
+        return delegate.close();
+    }
+
+    @Override
+    public CompletableFuture<Chunk<V>> chunk(@Nullable String cursor, int limit) {
+        return delegate.chunk(cursor, limit);
+    }
+
+    @Override
+    public CompletableFuture<Chunk<V>> changedSince(long since, @Nullable String cursor, int limit) {
+        return delegate.changedSince(since, cursor, limit);
+    }
+
+    @Override
+    public CompletableFuture<Collection<V>> allValues() {
+        return delegate.allValues();
+    }
+
+    @Override
+    public CompletableFuture<Long> importFrom(Path path) {
+        return importFrom(path, Dump.valueClass(delegate));
+    }
+
+    @Override
+    public <T> CompletableFuture<List<T>> distinct(String field, Query filter, Class<T> type) {
+        return delegate.distinct(field, filter, type);
+    }
+
+    @Override
+    public CompletableFuture<Void> index(String field) {
+        return delegate.index(field);
+    }
+
+    @Override
+    public CompletableFuture<Void> unindex(String field) {
+        return delegate.unindex(field);
+    }
+
+    @Override
+    public CompletableFuture<Void> indexIgnoreCase(String field) {
+        return delegate.indexIgnoreCase(field);
+    }
+
+    @Override
+    public CompletableFuture<Void> textIndex(String... fields) {
+        return delegate.textIndex(fields);
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /**
+     * @param entry creates the cache entry of a loaded result, the entry must be created from the same kind of result for every key.
+     */
+    private <T> CompletableFuture<T> cached(final Key key, final Supplier<CompletableFuture<T>> loader, final Function<T, Entry> entry) {
+        Entry cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached.result());
+        }
+
+        long started = generation.get();
+        return loader.get().thenApply(result -> {
+            Entry loaded = entry.apply(result);
+            if (generation.get() == started) {
+                cache.put(key, loaded);
+            }
+            return loaded.result();
+        });
+    }
+
+    /**
+     * @param withIds whether the entry can be kept on writes of values that aren't part of it.
+     */
+    private Entry values(final Collection<V> values, final boolean withIds) {
+        List<V> copy = Collections.unmodifiableList(new ArrayList<>(values));
+        return new Entry(copy, withIds ? ids(copy) : null);
+    }
+
+    /**
+     * Drops the affected entries before the write, so no reader sees them while it runs,
+     * and again once it completed for loads that read the old data in the meantime.
+     */
+    private CompletableFuture<Void> write(final Supplier<CompletableFuture<Void>> write, @Nullable final Collection<V> values) {
+        invalidate(values);
+        return write.get().whenComplete((v, throwable) -> invalidate(values));
+    }
+
+    private void invalidate(@Nullable final Collection<V> values) {
+        generation.incrementAndGet();
+        if (values == null) {
+            cache.invalidateAll();
+            return;
+        }
+
+        Set<Object> ids = ids(values);
+        cache.asMap().entrySet().removeIf(cached -> {
+            Entry entry = cached.getValue();
+            if (entry.ids() == null) {
+                return true;
+            }
+
+            for (Object id : ids) {
+                if (entry.ids().contains(id)) {
+                    return true;
+                }
+            }
+            for (V value : values) {
+                if (ConditionMatcher.mightMatch(cached.getKey().expression(), value)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    private Set<Object> ids(final Collection<V> values) {
+        Set<Object> ids = new HashSet<>();
+        for (V value : values) {
+            ids.add(IdUtils.getId(value));
+        }
+        return ids;
+    }
+
+    private enum Kind {
+        ALL, GET, COUNT, PAGE
+    }
+
+    /**
+     * The parts of a query that decide its result, queries are mutable so they are copied.
+     */
+    private record Key(Kind kind, @Nullable Expression expression, List<Sort> sorts, int limit, int offset, boolean distinct) {
+        private Key(final Kind kind, final Query query) {
+            this(kind, query.expression(), List.copyOf(query.sorts()), query.limit(), query.offset(), query.distinct());
+        }
+    }
+
+    /**
+     * @param ids the ids of the values in the result, or null if the result can change with any write.
+     */
+    private record Entry(Object value, @Nullable Set<Object> ids) {
+        // the key of an entry decides the type of its value
+        @SuppressWarnings("unchecked")
+        private <T> T result() {
+            return (T) value;
+        }
+    }
+}
@@ -1,46 +1,83 @@
 package wtf.casper.storageapi.impl.fstorage;
 
+import com.google.common.primitives.Primitives;
+import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.Nullable;
 import wtf.casper.storageapi.*;
 import wtf.casper.storageapi.id.utils.IdUtils;
+import wtf.casper.storageapi.misc.ChangeTracker;
 import wtf.casper.storageapi.misc.ConstructableValue;
+import wtf.casper.storageapi.misc.DataSourceProvider;
+import wtf.casper.storageapi.misc.SQLStorage;
+import wtf.casper.storageapi.utils.ReflectionUtil;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
 
+import java.lang.reflect.Field;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 public class MariaDBFStorage<K, V> implements FieldStorage<K, V>, ConstructableValue<K, V> {
+    private static final String TEXT_COLUMN = "text_search";
+    /**
+     * The indexed generated column holding the {@link wtf.casper.storageapi.id.UpdatedAt} field, changedSince reads it instead of every document.
+     */
+    private static final String UPDATED_AT_COLUMN = "updated_at";
+    private static final String MATCH = "MATCH(" + TEXT_COLUMN + ") AGAINST(? IN NATURAL LANGUAGE MODE)";
+
     private final Class<K> keyClass;
     private final Class<V> valueClass;
     private final String idFieldName;
     private final HikariDataSource ds;
+    private final HikariDataSource readDs;
     private final String table;
+    private final boolean nativeJson;
+    private boolean mysql;
+    // the columns of the table and their types, generated columns of indexes are used by conditions and sorts on their field
+    private final Map<String, String> columns = new ConcurrentHashMap<>();
+    private final ChangeTracker changeTracker;
 
     public MariaDBFStorage(final Class<K> keyClass, final Class<V> valueClass, Credentials credentials) {
-        this(keyClass, valueClass, credentials.getTable(), credentials.getHost(), credentials.getPort(-1), credentials.getDatabase(), credentials.getUsername(), credentials.getPassword());
+        this(keyClass, valueClass, credentials.getTable(), credentials.getHost(), credentials.getPort(-1), credentials.getDatabase(), credentials.getUsername(), credentials.getPassword(), credentials);
     }
 
     public MariaDBFStorage(final Class<K> keyClass, final Class<V> valueClass, final String table, final String host, final int port, final String database, final String username, final String password) {
+        this(keyClass, valueClass, table, host, port, database, username, password, Credentials.builder().build());
+    }
+
+    private MariaDBFStorage(final Class<K> keyClass, final Class<V> valueClass, final String table, final String host, final int port, final String database, final String username, final String password, final Credentials settings) {
+        if (settings.getPayloadCompression(null) != null) {
+            // every query filters on the json of the values, the database has to be able to read it
+            throw new IllegalArgumentException("MariaDBFStorage doesn't support payload compression");
+        }
         this.keyClass = keyClass;
         this.valueClass = valueClass;
         this.idFieldName = IdUtils.getIdName(this.valueClass);
-        this.ds = new HikariDataSource();
+        this.ds = DataSourceProvider.acquire(config("jdbc:mariadb://" + host + ":" + port + "/" + database, username, password, settings));
+        List<String> replicas = settings.getReplicas(List.of());
+        this.readDs = replicas.isEmpty() ? this.ds : DataSourceProvider.acquire(config("jdbc:mariadb:loadbalance://" + SQLStorage.hostList(replicas, port) + "/" + database, username, password, settings));
+        this.changeTracker = ChangeTracker.of(settings);
         this.table = table;
-        this.ds.setMaximumPoolSize(20);
-        this.ds.setDriverClassName("org.mariadb.jdbc.Driver");
-        this.ds.setJdbcUrl("jdbc:mariadb://" + host + ":" + port + "/" + database + "?allowPublicKeyRetrieval=true&autoReconnect=true&useSSL=false");
-        this.ds.addDataSourceProperty("user", username);
-        this.ds.addDataSourceProperty("password", password);
-        this.ds.setAutoCommit(true);
+        this.nativeJson = settings.getNativeJson(false);
         createTable();
     }
 
+    private static HikariConfig config(final String url, final String username, final String password, final Credentials credentials) {
+        HikariConfig config = DataSourceProvider.config("org.mariadb.jdbc.Driver", url + "?allowPublicKeyRetrieval=true&autoReconnect=true&useSSL=false", username, password, credentials);
+        config.setAutoCommit(true);
+        return config;
+    }
+
     @Override
     public Class<K> key() {
         return keyClass;
@@ -56,11 +93,11 @@ public class MariaDBFStorage<K, V> implements FieldStorage<K, V>, ConstructableV
         return CompletableFuture.supplyAsync(() -> {
             List<V> values = new ArrayList<>();
             String query = "SELECT * FROM " + table;
-            try (Connection connection = ds.getConnection();
+            try (Connection connection = readDs.getConnection();
                  PreparedStatement stmt = connection.prepareStatement(query)) {
                 ResultSet rs = stmt.executeQuery();
                 while (rs.next()) {
-                    values.add(StorageAPIConstants.getGson().fromJson(rs.getString("data"), valueClass));
+                    values.add(fromJson(rs.getString("data"), readDs == ds));
                 }
             } catch (SQLException e) {
                 e.printStackTrace();
@@ -76,87 +113,148 @@ public class MariaDBFStorage<K, V> implements FieldStorage<K, V>, ConstructableV
             List<V> values = new ArrayList<>();
             StringBuilder builder = new StringBuilder("SELECT * FROM ").append(table);
 
-            if (!query.conditions().isEmpty()) {
-                builder.append(" WHERE ");
-                List<List<Condition>> groups = Condition.group(query.conditions().toArray(new Condition[0]));
-                for (List<Condition> group : groups) {
-                    builder.append("(");
-                    for (Condition condition : group) {
-                        builder.append("JSON_EXTRACT(data, '$.").append(condition.key()).append("') ").append(getSqlOperator(condition)).append(" AND ");
-                    }
-                    builder.setLength(builder.length() - 5); // Remove the last " AND "
-                    builder.append(") OR ");
+            List<Object> parameters = new ArrayList<>();
+            builder.append(where(query, parameters));
+            builder.append(orderBy(query, parameters));
+            builder.append(page(query));
+
+            try (Connection connection = reader(query).getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(builder.toString())) {
+                bind(stmt, parameters);
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    values.add(fromJson(rs.getString("data"), reader(query) == ds));
                 }
-                builder.setLength(builder.length() - 4); // Remove the last " OR "
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
+            return values;
 
-            if (query.offset() > 0) {
-                builder.append(" OFFSET ").append(query.offset());
-            }
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
 
-            if (query.limit() > 0) {
-                builder.append(" LIMIT ").append(query.limit());
+    @Override
+    public CompletableFuture<Long> count(Query query) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<Object> parameters = new ArrayList<>();
+            String sql = "SELECT COUNT(*) FROM " + table + where(query, parameters);
+            try (Connection connection = reader(query).getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(sql)) {
+                bind(stmt, parameters);
+                ResultSet rs = stmt.executeQuery();
+                if (rs.next()) {
+                    return rs.getLong(1);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
+            return 0L;
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
 
-            Sort sortCondition = query.sorts().get(0);
-            if (sortCondition != null && sortCondition.sortingType() == SortingType.ASCENDING) {
-                builder.append(" ORDER BY JSON_EXTRACT(data, '$.").append(sortCondition.field()).append("') ASC");
-            } else if (sortCondition != null && sortCondition.sortingType() == SortingType.DESCENDING) {
-                builder.append(" ORDER BY JSON_EXTRACT(data, '$.").append(sortCondition.field()).append("') DESC");
+    @Override
+    public CompletableFuture<Long> estimatedCount() {
+        return CompletableFuture.supplyAsync(() -> {
+            String sql = "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+            try (Connection connection = readDs.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(sql)) {
+                stmt.setString(1, table);
+                ResultSet rs = stmt.executeQuery();
+                if (rs.next()) {
+                    return rs.getLong(1);
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
             }
+            return 0L;
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
 
-            try (Connection connection = ds.getConnection();
+    @Override
+    public CompletableFuture<Page<V>> getWithTotal(Query query) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<Object> parameters = new ArrayList<>();
+            StringBuilder builder = new StringBuilder("SELECT data, COUNT(*) OVER() AS total FROM ").append(table).append(where(query, parameters));
+
+            builder.append(orderBy(query, parameters));
+            builder.append(page(query));
+
+            List<V> values = new ArrayList<>();
+            long total = -1;
+            try (Connection connection = reader(query).getConnection();
                  PreparedStatement stmt = connection.prepareStatement(builder.toString())) {
-                int index = 1;
-                for (Condition condition : query.conditions()) {
-                    stmt.setObject(index++, condition.value());
+                bind(stmt, parameters);
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    values.add(fromJson(rs.getString("data"), reader(query) == ds));
+                    total = rs.getLong("total");
                 }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+
+            return new Page<>(values, total);
+        }, StorageAPIConstants.DB_THREAD_POOL).thenCompose(page -> {
+            if (page.total() >= 0) {
+                return CompletableFuture.completedFuture(page);
+            }
+            // a page past the end has no rows to carry the total, it is counted without blocking a pool thread
+            return query.offset() > 0
+                    ? count(query).thenApply(total -> new Page<>(page.values(), total))
+                    : CompletableFuture.completedFuture(new Page<>(page.values(), 0));
+        });
+    }
+
+    /**
+     * Array fields are compared as a whole, the distinct values are the distinct arrays.
+     */
+    @Override
+    public <T> CompletableFuture<List<T>> distinct(String field, Query filter, Class<T> type) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<Object> parameters = new ArrayList<>();
+            String path = "JSON_EXTRACT(data, '$." + field + "')";
+            Expression expression = filter.expression();
+            // only the json of the field is read, the documents are never parsed.
+            // compared in binary, the default collation of the table would fold values that differ in case into one
+            String query = "SELECT DISTINCT CONVERT(" + path + " USING utf8mb4) COLLATE utf8mb4_bin AS value FROM " + table
+                    + (expression == null ? " WHERE " : " WHERE (" + expression(expression, parameters) + ") AND ")
+                    + path + " IS NOT NULL AND JSON_TYPE(" + path + ") != 'NULL'" + page(filter);
+
+            List<T> values = new ArrayList<>();
+            try (Connection connection = reader(filter).getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(query)) {
+                bind(stmt, parameters);
                 ResultSet rs = stmt.executeQuery();
                 while (rs.next()) {
-                    values.add(StorageAPIConstants.getGson().fromJson(rs.getString("data"), valueClass));
+                    values.add(StorageAPIConstants.getGson().fromJson(rs.getString("value"), type));
                 }
             } catch (SQLException e) {
                 e.printStackTrace();
             }
             return values;
-
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
     @Override
     public CompletableFuture<Void> remove(Query query) {
         return CompletableFuture.runAsync(() -> {
-            StringBuilder builder = new StringBuilder("DELETE FROM ").append(table);
-
-            if (!query.conditions().isEmpty()) {
-                builder.append(" WHERE ");
-                List<List<Condition>> groups = Condition.group(query.conditions().toArray(new Condition[0]));
-                for (List<Condition> group : groups) {
-                    builder.append("(");
-                    for (Condition condition : group) {
-                        builder.append("JSON_EXTRACT(data, '$.").append(condition.key()).append("') ").append(getSqlOperator(condition)).append(" AND ");
-                    }
-                    builder.setLength(builder.length() - 5); // Remove the last " AND "
-                    builder.append(") OR ");
-                }
-                builder.setLength(builder.length() - 4); // Remove the last " OR "
-            }
-
-            if (query.offset() > 0) {
-                builder.append(" OFFSET ").append(query.offset());
+            if (changeTracker != null) {
+                changeTracker.clear();
             }
 
-            if (query.limit() > 0) {
-                builder.append(" LIMIT ").append(query.limit());
+            List<Object> parameters = new ArrayList<>();
+            StringBuilder builder = new StringBuilder("DELETE FROM ").append(table);
+            if (query.limit() > 0 || query.offset() > 0) {
+                // DELETE has no OFFSET, the page is selected first, wrapped once more because mysql can't LIMIT a subquery of IN
+                builder.append(" WHERE ").append(idFieldName).append(" IN (SELECT ").append(idFieldName).append(" FROM (SELECT ").append(idFieldName)
+                        .append(" FROM ").append(table).append(where(query, parameters)).append(orderBy(query, parameters)).append(page(query)).append(") AS page)");
+            } else {
+                builder.append(where(query, parameters));
             }
 
-
             try (Connection connection = ds.getConnection();
                  PreparedStatement stmt = connection.prepareStatement(builder.toString())) {
-                int index = 1;
-                for (Condition condition : query.conditions()) {
-                    stmt.setObject(index++, condition.value());
-                }
+                bind(stmt, parameters);
                 stmt.executeUpdate();
             } catch (SQLException e) {
                 e.printStackTrace();
@@ -177,42 +275,25 @@ public class MariaDBFStorage<K, V> implements FieldStorage<K, V>, ConstructableV
                 builder.append(getSqlAggregator(aggregation)).append(", ");
             }
             builder.setLength(builder.length() - 2);
-            builder.append(" FROM ").append(table);
-
-            if (!query.conditions().isEmpty()) {
-                builder.append(" WHERE ");
-                List<List<Condition>> groups = Condition.group(query.conditions().toArray(new Condition[0]));
-                for (List<Condition> group : groups) {
-                    builder.append("(");
-                    for (Condition condition : group) {
-                        builder.append("JSON_EXTRACT(data, '$.").append(condition.key()).append("') ").append(getSqlOperator(condition)).append(" AND ");
-                    }
-                    builder.setLength(builder.length() - 5); // Remove the last " AND "
-                    builder.append(") OR ");
-                }
-                builder.setLength(builder.length() - 4); // Remove the last " OR "
-            }
 
-            if (query.offset() > 0) {
-                builder.append(" OFFSET ").append(query.offset());
-            }
-
-            if (query.limit() > 0) {
-                builder.append(" LIMIT ").append(query.limit());
+            List<Object> parameters = new ArrayList<>();
+            if (query.limit() > 0 || query.offset() > 0) {
+                // aggregate the page of matches instead of limiting the single row of aggregates
+                builder.append(" FROM (SELECT data FROM ").append(table).append(where(query, parameters)).append(orderBy(query, parameters)).append(page(query)).append(") AS page");
+            } else {
+                builder.append(" FROM ").append(table).append(where(query, parameters));
             }
 
             List<AggregationResult> results = new ArrayList<>();
-            try (Connection connection = ds.getConnection();
+            try (Connection connection = reader(query).getConnection();
                  PreparedStatement stmt = connection.prepareStatement(builder.toString())) {
-                int index = 1;
-                for (Condition condition : query.conditions()) {
-                    stmt.setObject(index++, condition.value());
-                }
+                bind(stmt, parameters);
                 ResultSet rs = stmt.executeQuery();
-                while (rs.next()) {
-                    Object object = rs.getObject(0);
-                    String alias = rs.getCursorName();
-                    results.add(new AggregationResult(alias, object));
+                if (rs.next()) {
+                    for (int i = 0; i < query.aggregations().size(); i++) {
+                        Aggregation aggregation = query.aggregations().get(i);
+                        results.add(new AggregationResult(aggregation.alias() == null ? aggregation.field() : aggregation.alias(), rs.getObject(i + 1)));
+                    }
                 }
             } catch (SQLException e) {
                 e.printStackTrace();
@@ -226,12 +307,47 @@ public class MariaDBFStorage<K, V> implements FieldStorage<K, V>, ConstructableV
     @Override
     public CompletableFuture<Void> save(V value) {
         return CompletableFuture.supplyAsync(() -> {
+            Object id = IdUtils.getId(valueClass, value);
+            String json = StorageAPIConstants.getGson().toJson(value);
+
+            ChangeTracker.Diff diff = changeTracker == null ? null : changeTracker.diff(id, json);
+            if (diff != null && diff.isEmpty()) {
+                return null;
+            }
+
+            // only stamp values that actually changed, otherwise every save would be a change
+            if (IdUtils.touch(value)) {
+                json = StorageAPIConstants.getGson().toJson(value);
+                diff = changeTracker == null ? null : changeTracker.diff(id, json);
+            }
+
+            if (diff != null) {
+                String patch = "UPDATE " + table + " SET data = " + diff.toSqlExpression("data") + " WHERE " + idFieldName + " = ?";
+                try (Connection connection = ds.getConnection();
+                     PreparedStatement stmt = connection.prepareStatement(patch)) {
+                    List<String> parameters = diff.sqlParameters();
+                    for (int i = 0; i < parameters.size(); i++) {
+                        stmt.setString(i + 1, parameters.get(i));
+                    }
+                    stmt.setObject(parameters.size() + 1, uuidToString(id));
+                    if (stmt.executeUpdate() > 0) {
+                        changeTracker.track(id, json);
+                        return null;
+                    }
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+
             String query = "REPLACE INTO " + table + " (" + idFieldName + ", data) VALUES (?, ?)";
             try (Connection connection = ds.getConnection();
                  PreparedStatement stmt = connection.prepareStatement(query)) {
-                stmt.setObject(1, uuidToString(IdUtils.getId(valueClass, value)));
-                stmt.setString(2, StorageAPIConstants.getGson().toJson(value));
+                stmt.setObject(1, uuidToString(id));
+                stmt.setString(2, json);
                 stmt.executeUpdate();
+                if (changeTracker != null) {
+                    changeTracker.track(id, json);
+                }
             } catch (SQLException e) {
                 e.printStackTrace();
             }
@@ -244,6 +360,16 @@ public class MariaDBFStorage<K, V> implements FieldStorage<K, V>, ConstructableV
         return CompletableFuture.completedFuture(null);
     }
 
+    @Override
+    public CompletableFuture<Void> close() {
+        return CompletableFuture.runAsync(() -> {
+            DataSourceProvider.release(this.ds);
+            if (this.readDs != this.ds) {
+                DataSourceProvider.release(this.readDs);
+            }
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
     @Override
     public CompletableFuture<Void> deleteAll() {
         return CompletableFuture.supplyAsync(() -> {
@@ -254,6 +380,9 @@ public class MariaDBFStorage<K, V> implements FieldStorage<K, V>, ConstructableV
             } catch (SQLException e) {
                 e.printStackTrace();
             }
+            if (changeTracker != null) {
+                changeTracker.clear();
+            }
             return null;
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
@@ -263,11 +392,11 @@ public class MariaDBFStorage<K, V> implements FieldStorage<K, V>, ConstructableV
         return CompletableFuture.supplyAsync(() -> {
             List<V> values = new ArrayList<>();
             String query = "SELECT * FROM " + table;
-            try (Connection connection = ds.getConnection();
+            try (Connection connection = readDs.getConnection();
                  PreparedStatement stmt = connection.prepareStatement(query)) {
                 ResultSet rs = stmt.executeQuery();
                 while (rs.next()) {
-                    values.add(StorageAPIConstants.getGson().fromJson(rs.getString("data"), valueClass));
+                    values.add(fromJson(rs.getString("data"), readDs == ds));
                 }
             } catch (SQLException e) {
                 e.printStackTrace();
@@ -276,41 +405,464 @@ public class MariaDBFStorage<K, V> implements FieldStorage<K, V>, ConstructableV
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
+    @Override
+    public CompletableFuture<Chunk<V>> chunk(@Nullable String cursor, int limit) {
+        return chunk(null, 0, cursor, limit);
+    }
+
+    @Override
+    public CompletableFuture<Chunk<V>> changedSince(long since, @Nullable String cursor, int limit) {
+        Field updatedAtField = IdUtils.getUpdatedAtField(valueClass);
+        if (updatedAtField == null) {
+            return chunk(cursor, limit);
+        }
+        return chunk(UPDATED_AT_COLUMN + " >= ?", since, cursor, limit);
+    }
+
+    private CompletableFuture<Chunk<V>> chunk(@Nullable String condition, long parameter, @Nullable String cursor, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<V> values = new ArrayList<>();
+            String last = null;
+
+            List<String> where = new ArrayList<>();
+            if (condition != null) {
+                where.add(condition);
+            }
+            if (cursor != null) {
+                where.add(idFieldName + " > ?");
+            }
+            String query = "SELECT * FROM " + table + (where.isEmpty() ? "" : " WHERE " + String.join(" AND ", where)) + " ORDER BY " + idFieldName + " LIMIT ?";
+            try (Connection connection = readDs.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement(query)) {
+                int index = 1;
+                if (condition != null) {
+                    stmt.setLong(index++, parameter);
+                }
+                if (cursor != null) {
+                    stmt.setString(index++, cursor);
+                }
+                stmt.setInt(index, limit);
+                ResultSet rs = stmt.executeQuery();
+                while (rs.next()) {
+                    // chunks are read to copy whole tables, snapshots of them would only fill the tracker
+                    values.add(fromJson(rs.getString("data"), false));
+                    last = rs.getString(idFieldName);
+                }
+            } catch (SQLException e) {
+                // an empty chunk would be taken for the end of the table
+                throw new CompletionException(e);
+            }
+            return Chunk.of(values, last, limit);
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    /**
+     * Array fields get a multi-valued index on mysql, which CONTAINS conditions on the field use.
+     * Other fields get an indexed generated column, mariadb has no multi-valued indexes so array fields aren't indexed there.
+     */
     @Override
     public CompletableFuture<Void> index(String field) {
+        Class<?> elementType = elementType(field);
+        if (elementType != null && !mysql) {
+            return CompletableFuture.failedFuture(new UnsupportedOperationException("Can't index the elements of " + field + ", MariaDB has no multi-valued indexes"));
+        }
+        if (elementType != null && castType(elementType) == null) {
+            return CompletableFuture.failedFuture(new UnsupportedOperationException("Can't index the elements of " + field + ", " + elementType.getSimpleName() + " has no index type"));
+        }
+
         return CompletableFuture.runAsync(() -> {
-            String query = "ALTER TABLE " + table + " ADD COLUMN " + field + " TEXT AS (JSON_VALUE(data, '$." + field + "')) VIRTUAL";
+            String query;
+            if (elementType != null) {
+                query = "ALTER TABLE " + table + " ADD INDEX " + indexName(field) + " ((CAST(data->'$." + field + "' AS " + castType(elementType) + " ARRAY)))";
+            } else {
+                // typed like the field, so sorts by the field are served by the index
+                query = "ALTER TABLE " + table + " ADD COLUMN " + columnName(field) + " " + columnType(field) + " AS (" + typed(field) + ") VIRTUAL, ADD INDEX " + indexName(field) + " (" + columnName(field) + ")";
+            }
+
             try (Connection connection = ds.getConnection();
                  PreparedStatement stmt = connection.prepareStatement(query)) {
                 stmt.executeUpdate();
+                if (elementType == null) {
+                    columns.put(columnName(field), dataType(columnType(field)));
+                }
             } catch (SQLException e) {
                 e.printStackTrace();
             }
-        });
+        }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
+    /**
+     * Adds an indexed generated column with the lowercased field, case-insensitive conditions compare against it.
+     */
     @Override
-    public CompletableFuture<Void> unindex(String field) {
+    public CompletableFuture<Void> indexIgnoreCase(String field) {
         return CompletableFuture.runAsync(() -> {
-            String query = "ALTER TABLE " + table + " DROP COLUMN " + field;
+            String column = ignoreCaseColumn(field);
+            String query = "ALTER TABLE " + table + " ADD COLUMN " + column + " VARCHAR(255) AS (" + lowercase(field) + ") VIRTUAL, ADD INDEX " + indexName(column) + " (" + column + ")";
             try (Connection connection = ds.getConnection();
                  PreparedStatement stmt = connection.prepareStatement(query)) {
                 stmt.executeUpdate();
+                columns.put(column, "varchar");
             } catch (SQLException e) {
                 e.printStackTrace();
             }
-        });
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    @Override
+    public CompletableFuture<Void> unindex(String field) {
+        return CompletableFuture.runAsync(() -> {
+            List<String> drops = new ArrayList<>();
+            if (mysql && elementType(field) != null) {
+                drops.add("DROP INDEX " + indexName(field));
+            } else if (columns.containsKey(columnName(field))) {
+                drops.add("DROP COLUMN " + columnName(field));
+            }
+            if (columns.containsKey(ignoreCaseColumn(field))) {
+                drops.add("DROP COLUMN " + ignoreCaseColumn(field));
+            }
+            if (drops.isEmpty()) {
+                return;
+            }
+
+            try (Connection connection = ds.getConnection();
+                 PreparedStatement stmt = connection.prepareStatement("ALTER TABLE " + table + " " + String.join(", ", drops))) {
+                stmt.executeUpdate();
+                columns.remove(columnName(field));
+                columns.remove(ignoreCaseColumn(field));
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    /**
+     * Text indexes are a stored column of the concatenated fields with a fulltext index, the column is rebuilt when the fields change.
+     */
+    @Override
+    public CompletableFuture<Void> textIndex(String... fields) {
+        return CompletableFuture.runAsync(() -> {
+            List<String> values = new ArrayList<>();
+            for (String field : fields) {
+                values.add("JSON_UNQUOTE(JSON_EXTRACT(data, '$." + field + "'))");
+            }
+
+            try (Connection connection = ds.getConnection();
+                 Statement stmt = connection.createStatement()) {
+                if (columns.containsKey(TEXT_COLUMN)) {
+                    stmt.executeUpdate("ALTER TABLE " + table + " DROP COLUMN " + TEXT_COLUMN);
+                }
+                stmt.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + TEXT_COLUMN + " TEXT AS (CONCAT_WS(' ', " + String.join(", ", values) + ")) STORED, "
+                        + "ADD FULLTEXT INDEX " + indexName(TEXT_COLUMN) + " (" + TEXT_COLUMN + ")");
+                columns.put(TEXT_COLUMN, "text");
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    private void loadColumns(Connection connection) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT COLUMN_NAME, DATA_TYPE FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?")) {
+            stmt.setString(1, table);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                columns.put(rs.getString(1), rs.getString(2).toLowerCase());
+            }
+        }
     }
 
     private void createTable() {
         try (Connection connection = ds.getConnection();
              Statement stmt = connection.createStatement()) {
-            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + table + " (" + idFieldName + " VARCHAR(255) PRIMARY KEY, data TEXT)");
+            this.mysql = !connection.getMetaData().getDatabaseProductVersion().contains("MariaDB");
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + table + " (" + idFieldName + " VARCHAR(255) PRIMARY KEY, data " + (nativeJson ? "JSON" : "TEXT") + ")");
+            if (nativeJson) {
+                convertToJson(connection);
+            }
+            loadColumns(connection);
+
+            Field updatedAtField = IdUtils.getUpdatedAtField(valueClass);
+            if (updatedAtField != null && !columns.containsKey(UPDATED_AT_COLUMN)) {
+                stmt.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + UPDATED_AT_COLUMN + " BIGINT AS (CAST(JSON_EXTRACT(data, '$." + updatedAtField.getName() + "') AS SIGNED)) VIRTUAL, "
+                        + "ADD INDEX " + indexName(UPDATED_AT_COLUMN) + " (" + UPDATED_AT_COLUMN + ")");
+                columns.put(UPDATED_AT_COLUMN, "bigint");
+            }
         } catch (SQLException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Converts the data column of tables created before native json was enabled, mariadb stores json as longtext so only text columns are converted.
+     */
+    private void convertToJson(Connection connection) throws SQLException {
+        String type = null;
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT DATA_TYPE FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = 'data'")) {
+            stmt.setString(1, table);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                type = rs.getString(1);
+            }
+        }
+
+        if ("text".equalsIgnoreCase(type)) {
+            log.info("Converting the data column of {} to json", table);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.executeUpdate("ALTER TABLE " + table + " MODIFY data JSON");
+            }
+        }
+    }
+
+    /**
+     * @param parameters collects the values for the placeholders of the returned clause in order.
+     * @return the WHERE clause for the conditions of the query or an empty string if it has none.
+     */
+    private String where(Query query, List<Object> parameters) {
+        Expression expression = query.expression();
+        return expression == null ? "" : " WHERE " + expression(expression, parameters);
+    }
+
+    private String expression(Expression expression, List<Object> parameters) {
+        if (expression instanceof Condition condition) {
+            return condition(condition, parameters);
+        }
+        if (expression instanceof Expression.Not not) {
+            // a missing field makes a condition unknown, negated it should match like the $nor of mongo does
+            return "NOT COALESCE(" + expression(not.expression(), parameters) + ", FALSE)";
+        }
+
+        boolean and = expression instanceof Expression.And;
+        List<Expression> children = and ? ((Expression.And) expression).expressions() : ((Expression.Or) expression).expressions();
+        if (children.isEmpty()) {
+            return and ? "1 = 1" : "1 = 0";
+        }
+
+        List<String> clauses = new ArrayList<>();
+        for (Expression child : children) {
+            clauses.add(expression(child, parameters));
+        }
+        return "(" + String.join(and ? " AND " : " OR ", clauses) + ")";
+    }
+
+    private String condition(Condition condition, List<Object> parameters) {
+        ConditionType type = condition.conditionType();
+        String path = "'$." + condition.key() + "'";
+        switch (type) {
+            case TEXT_MATCH -> {
+                parameters.add(condition.value());
+                return MATCH;
+            }
+            case IN, NOT_IN -> {
+                List<?> values = condition.values();
+                if (values.isEmpty()) {
+                    return type == ConditionType.IN ? "1 = 0" : "1 = 1";
+                }
+                for (Object value : values) {
+                    parameters.add(uuidToString(value));
+                }
+                // ids are compared against their column, so a list of ids is a lookup of the primary key
+                String column = condition.key().equals(idFieldName) ? idFieldName : comparable(condition.key());
+                return column + (type == ConditionType.IN ? " IN (" : " NOT IN (") + String.join(", ", Collections.nCopies(values.size(), "?")) + ")";
+            }
+            case BETWEEN -> {
+                List<?> range = condition.values();
+                parameters.add(uuidToString(range.get(0)));
+                parameters.add(uuidToString(range.get(1)));
+                return comparable(condition.key()) + " BETWEEN ? AND ?";
+            }
+            case EXISTS -> {
+                return (Boolean.FALSE.equals(condition.value()) ? "NOT " : "") + "JSON_CONTAINS_PATH(data, 'one', " + path + ")";
+            }
+            case IS_NULL -> {
+                return "(JSON_EXTRACT(data, " + path + ") IS NULL OR JSON_TYPE(JSON_EXTRACT(data, " + path + ")) = 'NULL')";
+            }
+        }
+        if (type == ConditionType.EQUALS_IGNORE_CASE || type == ConditionType.STARTS_WITH_IGNORE_CASE) {
+            // without the generated column its expression is compared, which mysql still matches to an index on it
+            String column = columns.containsKey(ignoreCaseColumn(condition.key())) ? ignoreCaseColumn(condition.key()) : lowercase(condition.key());
+            if (type == ConditionType.EQUALS_IGNORE_CASE) {
+                parameters.add(condition.value());
+                return column + " = LOWER(?)";
+            }
+            parameters.add(escapeLike(condition.value()));
+            return column + " LIKE CONCAT(LOWER(?), '%')";
+        }
+        if ((type == ConditionType.CONTAINS || type == ConditionType.NOT_CONTAINS) && elementType(condition.key()) != null) {
+            // membership of an array instead of a substring of its json, MEMBER OF is what multi-valued indexes serve
+            String not = type == ConditionType.NOT_CONTAINS ? "NOT " : "";
+            if (mysql) {
+                parameters.add(uuidToString(condition.value()));
+                return not + "? MEMBER OF(data->'$." + condition.key() + "')";
+            }
+            parameters.add(StorageAPIConstants.getGson().toJson(condition.value()));
+            return not + "JSON_CONTAINS(data, ?, '$." + condition.key() + "')";
+        }
+
+        boolean like = switch (type) {
+            case STARTS_WITH, NOT_STARTS_WITH, ENDS_WITH, NOT_ENDS_WITH, CONTAINS, NOT_CONTAINS -> true;
+            default -> false;
+        };
+        parameters.add(like ? escapeLike(condition.value()) : condition.value());
+        return "JSON_EXTRACT(data, '$." + condition.key() + "') " + getSqlOperator(condition);
+    }
+
+    private Object escapeLike(Object value) {
+        if (!(value instanceof String string)) {
+            return value;
+        }
+        return string.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    private String lowercase(String field) {
+        return "LOWER(JSON_UNQUOTE(JSON_EXTRACT(data, '$." + field + "')))";
+    }
+
+    private String ignoreCaseColumn(String field) {
+        return columnName(field) + "_ci";
+    }
+
+    /**
+     * @param parameters collects the values for the placeholders of the returned clause in order.
+     * @return the ORDER BY clause for the sorts of the query or an empty string if it has none.
+     */
+    private String orderBy(Query query, List<Object> parameters) {
+        List<String> keys = new ArrayList<>();
+        for (Sort sort : query.sorts()) {
+            if (sort.sortingType() == SortingType.NONE) {
+                continue;
+            }
+
+            String direction = sort.sortingType() == SortingType.DESCENDING ? " DESC" : " ASC";
+            if (sort.isRelevance()) {
+                Condition match = (query.expression() == null ? List.<Condition>of() : query.expression().conditions()).stream()
+                        .filter(condition -> condition.conditionType() == ConditionType.TEXT_MATCH)
+                        .findFirst()
+                        .orElseThrow(() -> new IllegalArgumentException("Sorting by relevance requires a TEXT_MATCH condition"));
+                parameters.add(match.value());
+                keys.add(MATCH + direction);
+                continue;
+            }
+
+            Class<?> type = sortType(sort.field());
+            if (type != null && !sort.sortingType().isApplicable(type)) {
+                throw new IllegalArgumentException("Can't sort by " + sort.field() + " of type " + type.getSimpleName());
+            }
+            // the indexed column if it has the type of the field, then the top of the index is read instead of sorting the table
+            keys.add(comparable(sort.field()) + direction);
+        }
+        return keys.isEmpty() ? "" : " ORDER BY " + String.join(", ", keys);
+    }
+
+    /**
+     * @return the indexed column of the field if it has the type of the field, otherwise the field converted to its type,
+     * or its json if the field is unknown or a boolean, which json compares with the bound value.
+     */
+    private String comparable(String field) {
+        Class<?> type = sortType(field);
+        if (type == null || type == Boolean.class) {
+            return "JSON_EXTRACT(data, '$." + field + "')";
+        }
+        String column = columnName(field);
+        return dataType(columnType(field)).equals(columns.get(column)) ? column : typed(field);
+    }
+
+    private String page(Query query) {
+        if (query.limit() <= 0 && query.offset() <= 0) {
+            return "";
+        }
+        // mariadb has no OFFSET without LIMIT, the largest limit stands for "no limit"
+        String page = " LIMIT " + (query.limit() > 0 ? Integer.toString(query.limit()) : "18446744073709551615");
+        return query.offset() > 0 ? page + " OFFSET " + query.offset() : page;
+    }
+
+    /**
+     * @return the type a field is sorted as (Number, Boolean or String for values stored as json strings), null if the field is unknown.
+     */
+    @Nullable
+    private Class<?> sortType(String path) {
+        Field field = ReflectionUtil.findField(valueClass, path);
+        if (field == null) {
+            return null;
+        }
+        Class<?> type = Primitives.wrap(field.getType());
+        if (CharSequence.class.isAssignableFrom(type) || type == UUID.class || type == Character.class || type.isEnum()) {
+            return String.class;
+        }
+        return type;
+    }
+
+    private String columnType(String field) {
+        Class<?> type = sortType(field);
+        if (type == Long.class || type == Integer.class || type == Short.class || type == Byte.class) {
+            return "BIGINT";
+        }
+        if (type != null && Number.class.isAssignableFrom(type)) {
+            return "DECIMAL(65, 10)";
+        }
+        return "VARCHAR(255)";
+    }
+
+    /**
+     * @return the type information_schema reports for a column type.
+     */
+    private String dataType(String columnType) {
+        int length = columnType.indexOf('(');
+        return (length < 0 ? columnType : columnType.substring(0, length)).toLowerCase();
+    }
+
+    /**
+     * @return the value of the field converted to its column type, numbers compare as numbers instead of json strings.
+     */
+    private String typed(String field) {
+        String value = "JSON_VALUE(data, '$." + field + "')";
+        return switch (columnType(field)) {
+            case "BIGINT" -> "CAST(" + value + " AS SIGNED)";
+            case "DECIMAL(65, 10)" -> "CAST(" + value + " AS DECIMAL(65, 10))";
+            default -> value;
+        };
+    }
+
+    /**
+     * @return the element type if the field at the path is an array or collection, otherwise null.
+     */
+    @Nullable
+    private Class<?> elementType(String path) {
+        Field field = ReflectionUtil.findField(valueClass, path);
+        return field == null ? null : ReflectionUtil.getElementType(field);
+    }
+
+    /**
+     * @return the type the elements are cast to in a multi-valued index, null if mysql can't index them.
+     */
+    @Nullable
+    private String castType(Class<?> elementType) {
+        if (elementType == int.class || elementType == long.class || elementType == short.class || elementType == byte.class
+                || elementType == Integer.class || elementType == Long.class || elementType == Short.class || elementType == Byte.class) {
+            return "SIGNED";
+        }
+        if (elementType == double.class || elementType == float.class || Number.class.isAssignableFrom(elementType)) {
+            return "DECIMAL(65, 10)";
+        }
+        if (elementType == String.class || elementType == UUID.class || elementType.isEnum()) {
+            return "CHAR(255)";
+        }
+        return null;
+    }
+
+    private String columnName(String field) {
+        return field.replace('.', '_');
+    }
+
+    private String indexName(String field) {
+        return "idx_" + columnName(field);
+    }
+
+    private void bind(PreparedStatement stmt, List<Object> parameters) throws SQLException {
+        for (int i = 0; i < parameters.size(); i++) {
+            stmt.setObject(i + 1, parameters.get(i));
+        }
+    }
+
     private String getSqlOperator(Condition condition) {
         switch (condition.conditionType()) {
             case ENDS_WITH -> {
@@ -376,6 +928,21 @@ public class MariaDBFStorage<K, V> implements FieldStorage<K, V>, ConstructableV
         }
     }
 
+    private HikariDataSource reader(Query query) {
+        return query.primary() ? ds : readDs;
+    }
+
+    /**
+     * @param track whether the value is remembered by the change tracker, only values read from the primary are.
+     */
+    private V fromJson(String json, boolean track) {
+        V value = StorageAPIConstants.getGson().fromJson(json, valueClass);
+        if (track && changeTracker != null) {
+            changeTracker.track(IdUtils.getId(valueClass, value), StorageAPIConstants.getGson().toJson(value));
+        }
+        return value;
+    }
+
     private Object uuidToString(Object uuid) {
         if (uuid instanceof UUID) {
             return uuid.toString();
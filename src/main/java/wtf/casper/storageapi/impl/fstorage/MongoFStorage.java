@@ -5,25 +5,43 @@ import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
+import com.mongodb.client.model.CountOptions;
 import com.mongodb.client.model.DeleteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
 import lombok.Getter;
 import lombok.extern.java.Log;
+import com.google.gson.JsonParser;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.jetbrains.annotations.Nullable;
 import wtf.casper.storageapi.*;
 import wtf.casper.storageapi.id.utils.IdUtils;
+import wtf.casper.storageapi.misc.ChangeTracker;
 import wtf.casper.storageapi.misc.ConstructableValue;
 import wtf.casper.storageapi.misc.MongoStorage;
 import wtf.casper.storageapi.misc.MongoProvider;
+import wtf.casper.storageapi.utils.ReflectionUtil;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
 
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
 
 @Log
 public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableValue<K, V>, MongoStorage {
+    private static final Collation IGNORE_CASE = Collation.builder().locale("en").collationStrength(CollationStrength.SECONDARY).build();
 
     protected final Class<K> keyClass;
     protected final Class<V> valueClass;
@@ -33,17 +51,22 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
     @Getter
     protected final MongoCollection<Document> collection;
     protected final ReplaceOptions replaceOptions = new ReplaceOptions().upsert(true);
+    protected final ChangeTracker changeTracker;
 
     public MongoFStorage(final Class<K> keyClass, final Class<V> valueClass, final Credentials credentials) {
-        this(credentials.getUri(), credentials.getDatabase(), credentials.getCollection(), keyClass, valueClass);
+        this(credentials.getUri(), credentials.getDatabase(), credentials.getCollection(), keyClass, valueClass, credentials);
     }
 
     public MongoFStorage(final String uri, final String database, final String collection, final Class<K> keyClass, final Class<V> valueClass) {
+        this(uri, database, collection, keyClass, valueClass, Credentials.builder().build());
+    }
+
+    private MongoFStorage(final String uri, final String database, final String collection, final Class<K> keyClass, final Class<V> valueClass, final Credentials settings) {
         this.valueClass = valueClass;
         this.keyClass = keyClass;
         this.idFieldName = IdUtils.getIdName(this.valueClass);
         try {
-            mongoClient = MongoProvider.getClient(uri);
+            mongoClient = MongoProvider.getClient(uri, settings);
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Failed to connect to mongo");
@@ -51,7 +74,8 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
         this.uri = uri;
 
         MongoDatabase mongoDatabase = mongoClient.getDatabase(database);
-        this.collection = mongoDatabase.getCollection(collection);
+        this.collection = MongoProvider.configure(mongoDatabase.getCollection(collection), settings);
+        this.changeTracker = ChangeTracker.of(settings);
     }
 
     @Override
@@ -70,7 +94,7 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
             List<V> values = new ArrayList<>();
             FindIterable<Document> iterable = collection.find();
             for (Document document : iterable) {
-                values.add(StorageAPIConstants.getGson().fromJson(document.toJson(), valueClass));
+                values.add(fromDocument(document, MongoProvider.readsPrimary(collection)));
             }
             return values;
         }, StorageAPIConstants.DB_THREAD_POOL);
@@ -80,27 +104,9 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
     public CompletableFuture<Collection<V>> get(Query query) {
         return CompletableFuture.supplyAsync(() -> {
             boolean hasLimit = query.limit() > 0;
-            List<List<Condition>> group = Condition.group(query.conditions().toArray(new Condition[0]));
-            boolean hasOr = group.size() > 1;
-
-            Document queryDocument = new Document();
-            List<Document> orConditions = new ArrayList<>();
-
-            for (List<Condition> conditionGroup : group) {
-                Document andQuery = andFilters(conditionGroup.toArray(new Condition[0]));
-
-                if (hasOr) {
-                    orConditions.add(andQuery);
-                } else {
-                    queryDocument = andQuery;
-                }
-            }
+            Document queryDocument = toFilter(query);
 
-            if (hasOr) {
-                queryDocument.append("$or", orConditions);
-            }
-
-            FindIterable<Document> iterable = collection.find(queryDocument);
+            FindIterable<Document> iterable = collection.find(queryDocument).collation(collation(query));
             if (hasLimit) {
                 iterable.limit(query.limit());
             }
@@ -110,49 +116,106 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
             }
 
 
-            Sort sort = query.sorts().isEmpty() ? null : query.sorts().get(0);
-            if (sort != null && sort.sortingType() == SortingType.ASCENDING) {
-                iterable.sort(new Document(sort.field(), 1));
-            } else if (sort != null && sort.sortingType() == SortingType.DESCENDING) {
-                iterable.sort(new Document(sort.field(), -1));
+            Document sort = sort(query);
+            if (sort != null) {
+                iterable.sort(sort);
             }
 
             List<V> values = new ArrayList<>();
             for (Document document : iterable) {
-                values.add(StorageAPIConstants.getGson().fromJson(document.toJson(), valueClass));
+                values.add(fromDocument(document, MongoProvider.readsPrimary(collection)));
             }
             return values;
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
     @Override
-    public CompletableFuture<Void> remove(Query query) {
-        return CompletableFuture.runAsync(() -> {
-            boolean hasLimit = query.limit() > 0;
-            List<List<Condition>> group = Condition.group(query.conditions().toArray(new Condition[0]));
-            boolean hasOr = group.size() > 1;
+    public CompletableFuture<Long> count(Query query) {
+        return CompletableFuture.supplyAsync(() -> collection.countDocuments(toFilter(query), new CountOptions().collation(collation(query))), StorageAPIConstants.DB_THREAD_POOL);
+    }
 
-            Document queryDocument = new Document();
-            List<Document> orConditions = new ArrayList<>();
+    @Override
+    public CompletableFuture<Long> estimatedCount() {
+        return CompletableFuture.supplyAsync(collection::estimatedDocumentCount, StorageAPIConstants.DB_THREAD_POOL);
+    }
 
-            for (List<Condition> conditionGroup : group) {
-                Document andQuery = andFilters(conditionGroup.toArray(new Condition[0]));
+    @Override
+    public CompletableFuture<Page<V>> getWithTotal(Query query) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<Document> page = new ArrayList<>();
+            Document sort = sort(query);
+            if (sort != null) {
+                page.add(new Document("$sort", sort));
+            }
+            if (query.offset() > 0) {
+                page.add(new Document("$skip", query.offset()));
+            }
+            if (query.limit() > 0) {
+                page.add(new Document("$limit", query.limit()));
+            }
+            if (page.isEmpty()) {
+                // a facet pipeline can't be empty
+                page.add(new Document("$skip", 0));
+            }
 
-                if (hasOr) {
-                    orConditions.add(andQuery);
-                } else {
-                    queryDocument = andQuery;
+            Document facet = new Document("$facet", new Document("values", page)
+                    .append("total", List.of(new Document("$count", "count"))));
+            Document result = collection.aggregate(List.of(new Document("$match", toFilter(query)), facet)).collation(collation(query)).first();
+
+            List<V> values = new ArrayList<>();
+            long total = 0;
+            if (result != null) {
+                for (Document document : result.getList("values", Document.class)) {
+                    values.add(fromDocument(document, MongoProvider.readsPrimary(collection)));
                 }
+                List<Document> count = result.getList("total", Document.class);
+                total = count.isEmpty() ? 0 : ((Number) count.get(0).get("count")).longValue();
             }
+            return new Page<>(values, total);
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
 
-            if (hasOr) {
-                queryDocument.append("$or", orConditions);
+    /**
+     * Mongo unwinds arrays, the distinct values of an array field are its distinct elements.
+     */
+    @Override
+    public <T> CompletableFuture<List<T>> distinct(String field, Query filter, Class<T> type) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<T> values = new ArrayList<>();
+            int skipped = 0;
+            for (BsonValue value : collection.distinct(field, toFilter(filter), BsonValue.class).collation(collation(filter))) {
+                if (value.isNull()) {
+                    continue;
+                }
+                if (skipped++ < filter.offset()) {
+                    continue;
+                }
+                if (filter.limit() > 0 && values.size() >= filter.limit()) {
+                    break;
+                }
+                // wrapped because a document is the smallest unit of json the driver writes
+                String json = new BsonDocument("value", value).toJson();
+                values.add(StorageAPIConstants.getGson().fromJson(JsonParser.parseString(json).getAsJsonObject().get("value"), type));
             }
+            return values;
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    @Override
+    public CompletableFuture<Void> remove(Query query) {
+        return CompletableFuture.runAsync(() -> {
+            if (changeTracker != null) {
+                changeTracker.clear();
+            }
+
+            boolean hasLimit = query.limit() > 0;
+            Document queryDocument = toFilter(query);
 
             boolean hasOffset = query.offset() > 0;
             if (hasLimit || hasOffset) {
                 List<Document> documents = new ArrayList<>();
                 collection.find(queryDocument)
+                        .collation(collation(query))
                         .limit(query.limit() == -1 ? 0 : query.limit() + query.offset())
                         .skip(query.offset())
                         .into(documents);
@@ -160,7 +223,7 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
                 return;
             }
 
-            collection.deleteMany(queryDocument);
+            collection.deleteMany(queryDocument, new DeleteOptions().collation(collation(query)));
         }, StorageAPIConstants.DB_THREAD_POOL);
 
     }
@@ -169,7 +232,7 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
     public CompletableFuture<List<AggregationResult>> aggregate(Query query) {
         return CompletableFuture.supplyAsync(() -> {
             List<AggregationResult> results = new ArrayList<>();
-            Document queryDocument = andFilters(query.conditions().toArray(new Condition[0]));
+            Document queryDocument = toFilter(query);
             Document aggregationDocument = new Document();
             for (Aggregation aggregation : query.aggregations()) {
                 aggregationDocument.append(aggregation.field(), aggregation(aggregation));
@@ -186,8 +249,7 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
     @Override
     public CompletableFuture<Void> save(V value) {
         return CompletableFuture.supplyAsync(() -> {
-            Document document = Document.parse(StorageAPIConstants.getGson().toJson(value));
-            collection.replaceOne(new Document(idFieldName, IdUtils.getId(valueClass, value)), document, replaceOptions);
+            saveValue(value);
             return null;
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
@@ -195,14 +257,74 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
     @Override
     public CompletableFuture<Void> saveAll(Collection<V> values) {
         return CompletableFuture.supplyAsync(() -> {
+            Map<Object, String> saved = new LinkedHashMap<>();
+            List<ReplaceOneModel<Document>> writes = new ArrayList<>(values.size());
             for (V value : values) {
-                Document document = Document.parse(StorageAPIConstants.getGson().toJson(value));
-                collection.replaceOne(new Document(idFieldName, IdUtils.getId(valueClass, value)), document, replaceOptions);
+                Object id = IdUtils.getId(valueClass, value);
+                String json = StorageAPIConstants.getGson().toJson(value);
+                ChangeTracker.Diff diff = changeTracker == null ? null : changeTracker.diff(id, json);
+                if (diff != null && diff.isEmpty()) {
+                    continue;
+                }
+
+                if (IdUtils.touch(value)) {
+                    json = StorageAPIConstants.getGson().toJson(value);
+                }
+                writes.add(new ReplaceOneModel<>(new Document(idFieldName, convertUUIDtoString(id)), Document.parse(json), replaceOptions));
+                saved.put(id, json);
+            }
+
+            if (writes.isEmpty()) {
+                return null;
+            }
+
+            // unordered so one failing document doesn't stop the rest of the batch
+            collection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+            if (changeTracker != null) {
+                saved.forEach(changeTracker::track);
             }
             return null;
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
+    private void saveValue(V value) {
+        Object id = IdUtils.getId(valueClass, value);
+        String json = StorageAPIConstants.getGson().toJson(value);
+        Document filter = new Document(idFieldName, convertUUIDtoString(id));
+
+        ChangeTracker.Diff diff = changeTracker == null ? null : changeTracker.diff(id, json);
+        if (diff != null && diff.isEmpty()) {
+            return;
+        }
+
+        // only stamp values that actually changed, otherwise every save would be a change
+        if (IdUtils.touch(value)) {
+            json = StorageAPIConstants.getGson().toJson(value);
+            diff = changeTracker == null ? null : changeTracker.diff(id, json);
+        }
+
+        if (diff != null && collection.updateOne(filter, diff.toMongoUpdate()).getMatchedCount() > 0) {
+            changeTracker.track(id, json);
+            return;
+        }
+
+        collection.replaceOne(filter, Document.parse(json), replaceOptions);
+        if (changeTracker != null) {
+            changeTracker.track(id, json);
+        }
+    }
+
+    /**
+     * @param track whether the value is remembered by the change tracker, only values read from the primary are.
+     */
+    private V fromDocument(Document document, boolean track) {
+        V value = StorageAPIConstants.getGson().fromJson(document.toJson(), valueClass);
+        if (track && changeTracker != null) {
+            changeTracker.track(IdUtils.getId(valueClass, value), StorageAPIConstants.getGson().toJson(value));
+        }
+        return value;
+    }
+
     @Override
     public CompletableFuture<Void> write() {
         return CompletableFuture.completedFuture(null);
@@ -212,6 +334,9 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
     public CompletableFuture<Void> deleteAll() {
         return CompletableFuture.supplyAsync(() -> {
             collection.deleteMany(new Document());
+            if (changeTracker != null) {
+                changeTracker.clear();
+            }
             return null;
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
@@ -222,12 +347,47 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
             List<V> values = new ArrayList<>();
             FindIterable<Document> iterable = collection.find();
             for (Document document : iterable) {
-                values.add(StorageAPIConstants.getGson().fromJson(document.toJson(), valueClass));
+                values.add(fromDocument(document, MongoProvider.readsPrimary(collection)));
             }
             return values;
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
+    @Override
+    public CompletableFuture<Chunk<V>> chunk(@Nullable String cursor, int limit) {
+        return chunk(new Document(), cursor, limit);
+    }
+
+    @Override
+    public CompletableFuture<Chunk<V>> changedSince(long since, @Nullable String cursor, int limit) {
+        Field updatedAtField = IdUtils.getUpdatedAtField(valueClass);
+        if (updatedAtField == null) {
+            return chunk(cursor, limit);
+        }
+        return chunk(new Document(updatedAtField.getName(), new Document("$gte", since)), cursor, limit);
+    }
+
+    private CompletableFuture<Chunk<V>> chunk(Document filter, @Nullable String cursor, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            if (cursor != null) {
+                filter.append(idFieldName, new Document("$gt", cursorId(cursor, IdUtils.getIdClass(valueClass))));
+            }
+            List<Document> documents = collection.find(filter)
+                    .sort(Sorts.ascending(idFieldName))
+                    .limit(limit)
+                    .into(new ArrayList<>());
+
+            List<V> values = new ArrayList<>(documents.size());
+            for (Document document : documents) {
+                // chunks are read to copy whole collections, snapshots of them would only fill the tracker
+                values.add(fromDocument(document, false));
+            }
+
+            String last = documents.isEmpty() ? null : String.valueOf(documents.get(documents.size() - 1).get(idFieldName));
+            return Chunk.of(values, last, limit);
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
     @Override
     public CompletableFuture<Void> index(String field) {
         return CompletableFuture.supplyAsync(() -> {
@@ -236,26 +396,199 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
+    @Override
+    public CompletableFuture<Void> indexIgnoreCase(String field) {
+        return CompletableFuture.runAsync(() -> collection.createIndex(new Document(field, 1), new IndexOptions()
+                .name(field + "_ignore_case")
+                .collation(IGNORE_CASE)), StorageAPIConstants.DB_THREAD_POOL);
+    }
+
     @Override
     public CompletableFuture<Void> unindex(String field) {
         return CompletableFuture.supplyAsync(() -> {
-            collection.dropIndex(field);
+            // the plain and the case-insensitive index of the field
+            for (Document index : collection.listIndexes()) {
+                Document key = index.get("key", Document.class);
+                if (key.size() == 1 && key.containsKey(field)) {
+                    collection.dropIndex(index.getString("name"));
+                }
+            }
             return null;
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
-    private Document andFilters(Condition... conditions) {
-        Document query = new Document();
-        for (Condition condition : conditions) {
-            query.putAll(filterToDocument(condition));
+    /**
+     * Mongo allows one text index per collection, an existing one is dropped first.
+     */
+    @Override
+    public CompletableFuture<Void> textIndex(String... fields) {
+        return CompletableFuture.runAsync(() -> {
+            for (Document index : collection.listIndexes()) {
+                if ("text".equals(index.get("key", Document.class).get("_fts"))) {
+                    collection.dropIndex(index.getString("name"));
+                }
+            }
+
+            Document keys = new Document();
+            for (String field : fields) {
+                keys.append(field, "text");
+            }
+            collection.createIndex(keys);
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    @Nullable
+    private Document sort(Query query) {
+        Document sort = new Document();
+        for (Sort key : query.sorts()) {
+            if (key.sortingType() == SortingType.NONE) {
+                continue;
+            }
+            if (key.isRelevance()) {
+                // mongo only sorts text scores from best to worst
+                sort.append("score", new Document("$meta", "textScore"));
+                continue;
+            }
+            sort.append(key.field(), key.sortingType() == SortingType.DESCENDING ? -1 : 1);
+        }
+        return sort.isEmpty() ? null : sort;
+    }
+
+    /**
+     * Mongo applies a collation to the whole query, it would make every other string comparison of the query case-insensitive too.
+     * Queries that combine case-insensitive conditions with case-sensitive string comparisons are rejected instead.
+     *
+     * @throws IllegalArgumentException if the query mixes case-insensitive and case-sensitive string conditions.
+     */
+    @Nullable
+    private Collation collation(Query query) {
+        Expression expression = query.expression();
+        if (expression == null) {
+            return null;
+        }
+
+        boolean ignoreCase = false;
+        Condition caseSensitive = null;
+        for (Condition condition : expression.conditions()) {
+            if (condition.conditionType() == ConditionType.EQUALS_IGNORE_CASE || condition.conditionType() == ConditionType.STARTS_WITH_IGNORE_CASE) {
+                ignoreCase = true;
+            } else if (comparesStrings(condition)) {
+                caseSensitive = condition;
+            }
+        }
+
+        if (!ignoreCase) {
+            return null;
+        }
+        if (caseSensitive != null) {
+            throw new IllegalArgumentException("Case-insensitive conditions can't be combined with the " + caseSensitive.conditionType()
+                    + " condition on " + caseSensitive.key() + ", mongo would compare it case-insensitively as well");
+        }
+        return IGNORE_CASE;
+    }
+
+    /**
+     * @return whether the condition compares strings in a way a collation changes, regex conditions ignore the collation.
+     */
+    private boolean comparesStrings(Condition condition) {
+        switch (condition.conditionType()) {
+            case EXISTS, IS_NULL, STARTS_WITH, ENDS_WITH, NOT_STARTS_WITH, NOT_ENDS_WITH -> {
+                return false;
+            }
+            case CONTAINS, NOT_CONTAINS -> {
+                if (!isArray(condition.key())) {
+                    return false;
+                }
+            }
+            default -> {
+            }
+        }
+        return condition.values().stream().anyMatch(value -> value instanceof String);
+    }
+
+    /**
+     * A range instead of a regex, so the prefix is a bounded scan of the case-insensitive index.
+     * U+FFFF sorts after every other character, in binary order as well as in collations.
+     */
+    private Document prefix(String field, Object prefix) {
+        return new Document(field, new Document("$gte", prefix).append("$lt", prefix + "\uffff"));
+    }
+
+    private String quote(Object value) {
+        return Pattern.quote(String.valueOf(value));
+    }
+
+    private Document toFilter(Query query) {
+        Expression expression = query.expression();
+        return expression == null ? new Document() : toFilter(expression);
+    }
+
+    private Document toFilter(Expression expression) {
+        if (expression instanceof Condition condition) {
+            return filterToDocument(condition);
+        }
+        if (expression instanceof Expression.Not not) {
+            return new Document("$nor", List.of(toFilter(not.expression())));
+        }
+
+        boolean and = expression instanceof Expression.And;
+        List<Expression> children = and ? ((Expression.And) expression).expressions() : ((Expression.Or) expression).expressions();
+        if (children.size() == 1) {
+            return toFilter(children.get(0));
+        }
+        if (children.isEmpty()) {
+            // $or can't be empty, no document lacks an id
+            return and ? new Document() : new Document("_id", new Document("$exists", false));
+        }
+
+        List<Document> filters = new ArrayList<>();
+        for (Expression child : children) {
+            filters.add(toFilter(child));
         }
-        return query;
+        return new Document(and ? "$and" : "$or", filters);
     }
 
     private Document filterToDocument(Condition condition) {
+        if (isArray(condition.key())) {
+            // mongo matches conditions against each element of an array, membership is plain equality
+            if (condition.conditionType() == ConditionType.CONTAINS) {
+                return new Document(condition.key(), condition.value());
+            }
+            if (condition.conditionType() == ConditionType.NOT_CONTAINS) {
+                return new Document(condition.key(), new Document("$ne", condition.value()));
+            }
+        }
+
         switch (condition.conditionType()) {
+            case IN -> {
+                return new Document(condition.key(), new Document("$in", condition.values()));
+            }
+            case NOT_IN -> {
+                return new Document(condition.key(), new Document("$nin", condition.values()));
+            }
+            case BETWEEN -> {
+                List<?> range = condition.values();
+                return new Document(condition.key(), new Document("$gte", range.get(0)).append("$lte", range.get(1)));
+            }
+            case EXISTS -> {
+                return new Document(condition.key(), new Document("$exists", condition.value()));
+            }
+            case IS_NULL -> {
+                // also matches documents without the field
+                return new Document(condition.key(), null);
+            }
+            case TEXT_MATCH -> {
+                return new Document("$text", new Document("$search", condition.value()));
+            }
             case STARTS_WITH -> {
-                return new Document(condition.key(), new Document("$regex", "^" + condition.value()).append("$options", "i"));
+                // case-insensitive like the other regex conditions, so it stays the complement of NOT_STARTS_WITH
+                return new Document(condition.key(), new Document("$regex", "^" + quote(condition.value())).append("$options", "i"));
+            }
+            case STARTS_WITH_IGNORE_CASE -> {
+                return prefix(condition.key(), condition.value());
+            }
+            case EQUALS_IGNORE_CASE -> {
+                return new Document(condition.key(), condition.value());
             }
             case LESS_THAN, NOT_GREATER_THAN_OR_EQUAL_TO -> {
                 return new Document(condition.key(), new Document("$lt", condition.value()));
@@ -267,10 +600,10 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
                 return new Document(condition.key(), new Document("$gt", condition.value()));
             }
             case CONTAINS -> {
-                return new Document(condition.key(), new Document("$regex", condition.value()).append("$options", "i"));
+                return new Document(condition.key(), new Document("$regex", quote(condition.value())).append("$options", "i"));
             }
             case ENDS_WITH -> {
-                return new Document(condition.key(), new Document("$regex", condition.value() + "$").append("$options", "i"));
+                return new Document(condition.key(), new Document("$regex", quote(condition.value()) + "$").append("$options", "i"));
             }
             case LESS_THAN_OR_EQUAL_TO, NOT_GREATER_THAN -> {
                 return new Document(condition.key(), new Document("$lte", condition.value()));
@@ -282,13 +615,13 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
                 return new Document(condition.key(), new Document("$ne", condition.value()));
             }
             case NOT_CONTAINS -> {
-                return new Document(condition.key(), new Document("$not", new Document("$regex", condition.value()).append("$options", "i")));
+                return new Document(condition.key(), new Document("$not", new Document("$regex", quote(condition.value())).append("$options", "i")));
             }
             case NOT_STARTS_WITH -> {
-                return new Document(condition.key(), new Document("$not", new Document("$regex", "^" + condition.value()).append("$options", "i")));
+                return new Document(condition.key(), new Document("$not", new Document("$regex", "^" + quote(condition.value())).append("$options", "i")));
             }
             case NOT_ENDS_WITH -> {
-                return new Document(condition.key(), new Document("$not", new Document("$regex", condition.value() + "$").append("$options", "i")));
+                return new Document(condition.key(), new Document("$not", new Document("$regex", quote(condition.value()) + "$").append("$options", "i")));
             }
             default -> {
                 throw new IllegalArgumentException("Unknown filter type: " + condition.conditionType());
@@ -296,6 +629,11 @@ public class MongoFStorage<K, V> implements FieldStorage<K, V>, ConstructableVal
         }
     }
 
+    private boolean isArray(String path) {
+        Field field = ReflectionUtil.findField(valueClass, path);
+        return field != null && ReflectionUtil.getElementType(field) != null;
+    }
+
     private Document aggregation(Aggregation aggregation) {
         switch (aggregation.function()) {
             case AVG -> {
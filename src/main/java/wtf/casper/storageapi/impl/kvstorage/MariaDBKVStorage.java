@@ -1,49 +1,74 @@
 package wtf.casper.storageapi.impl.kvstorage;
 
+import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import lombok.SneakyThrows;
 import lombok.extern.java.Log;
 import wtf.casper.storageapi.Credentials;
+import wtf.casper.storageapi.id.utils.IdUtils;
+import wtf.casper.storageapi.misc.ChangeTracker;
+import wtf.casper.storageapi.misc.DataSourceProvider;
+import wtf.casper.storageapi.misc.ExpirySweeper;
+import wtf.casper.storageapi.misc.KeyFilter;
+import wtf.casper.storageapi.misc.PayloadCodec;
 import wtf.casper.storageapi.misc.SQLStorage;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 @Log
 public class MariaDBKVStorage<K, V> implements SQLStorage<K, V> {
     private final HikariDataSource ds;
+    private final HikariDataSource readDs;
     private final Class<K> keyClass;
     private final Class<V> valueClass;
     private final String table;
+    private final ChangeTracker changeTracker;
+    private final ExpirySweeper expirySweeper = new ExpirySweeper(this);
+    private final KeyFilter keyFilter;
+    private final boolean binaryKeys;
+    private final PayloadCodec payloadCodec;
 
     public MariaDBKVStorage(final Class<K> keyClass, final Class<V> valueClass, final String table, final Credentials credentials) {
-        this(keyClass, valueClass, table, credentials.getHost(), credentials.getPort(3306), credentials.getDatabase(), credentials.getUsername(), credentials.getPassword());
+        this(keyClass, valueClass, table, credentials.getHost(), credentials.getPort(3306), credentials.getDatabase(), credentials.getUsername(), credentials.getPassword(), credentials);
     }
 
     public MariaDBKVStorage(final Class<K> keyClass, final Class<V> valueClass, final Credentials credentials) {
-        this(keyClass, valueClass, credentials.getTable(), credentials.getHost(), credentials.getPort(3306), credentials.getDatabase(), credentials.getUsername(), credentials.getPassword());
+        this(keyClass, valueClass, credentials.getTable(), credentials.getHost(), credentials.getPort(3306), credentials.getDatabase(), credentials.getUsername(), credentials.getPassword(), credentials);
     }
 
-    @SneakyThrows
     public MariaDBKVStorage(final Class<K> keyClass, final Class<V> valueClass, final String table, final String host, final int port, final String database, final String username, final String password) {
+        this(keyClass, valueClass, table, host, port, database, username, password, Credentials.builder().build());
+    }
+
+    @SneakyThrows
+    private MariaDBKVStorage(final Class<K> keyClass, final Class<V> valueClass, final String table, final String host, final int port, final String database, final String username, final String password, final Credentials settings) {
         this.keyClass = keyClass;
         this.valueClass = valueClass;
         this.table = table;
-        this.ds = new HikariDataSource();
-        this.ds.setMaximumPoolSize(20);
-        this.ds.setDriverClassName("org.mariadb.jdbc.Driver");
-        this.ds.setJdbcUrl("jdbc:mariadb://" + host + ":" + port + "/" + database + "?allowPublicKeyRetrieval=true&autoReconnect=true&useSSL=false");
-        this.ds.addDataSourceProperty("user", username);
-        this.ds.addDataSourceProperty("password", password);
-        this.ds.setAutoCommit(true);
+        this.binaryKeys = settings.getBinaryKeys(false);
+        String compression = settings.getPayloadCompression(null);
+        this.payloadCodec = compression == null ? null : new PayloadCodec(compression, settings.getPayloadCompressionThreshold(1024));
+        this.ds = DataSourceProvider.acquire(config("jdbc:mariadb://" + host + ":" + port + "/" + database, username, password, settings));
+        List<String> replicas = settings.getReplicas(List.of());
+        this.readDs = replicas.isEmpty() ? this.ds : DataSourceProvider.acquire(config("jdbc:mariadb:loadbalance://" + SQLStorage.hostList(replicas, port) + "/" + database, username, password, settings));
+        this.changeTracker = ChangeTracker.of(settings);
         createTable();
+
+        this.keyFilter = settings.getBloomFilterKeys(0) > 0 ? new KeyFilter(settings.getBloomFilterKeys(0)) : null;
+        if (this.keyFilter != null) {
+            this.keyFilter.build(this::keys);
+        }
+    }
+
+    private static HikariConfig config(final String url, final String username, final String password, final Credentials credentials) {
+        HikariConfig config = DataSourceProvider.config("org.mariadb.jdbc.Driver", url + "?allowPublicKeyRetrieval=true&autoReconnect=true&useSSL=false", username, password, credentials);
+        config.setAutoCommit(true);
+        return config;
     }
 
     @Override
@@ -51,11 +76,41 @@ public class MariaDBKVStorage<K, V> implements SQLStorage<K, V> {
         return ds;
     }
 
+    @Override
+    public KeyFilter keyFilter() {
+        return keyFilter;
+    }
+
+    @Override
+    public ExpirySweeper expirySweeper() {
+        return expirySweeper;
+    }
+
+    @Override
+    public boolean binaryKeys() {
+        return binaryKeys;
+    }
+
+    @Override
+    public PayloadCodec payloadCodec() {
+        return payloadCodec;
+    }
+
+    @Override
+    public HikariDataSource readDataSource() {
+        return readDs;
+    }
+
     @Override
     public Logger logger() {
         return log;
     }
 
+    @Override
+    public ChangeTracker changeTracker() {
+        return changeTracker;
+    }
+
     @Override
     public String table() {
         return table;
@@ -80,16 +135,19 @@ public class MariaDBKVStorage<K, V> implements SQLStorage<K, V> {
     public CompletableFuture<Void> deleteAll() {
         return CompletableFuture.runAsync(() -> {
             execute("DELETE FROM " + this.table + ";");
+            if (changeTracker != null) {
+                changeTracker.clear();
+            }
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
     @Override
     public CompletableFuture<Void> close() {
+        expirySweeper.stop();
         return CompletableFuture.runAsync(() -> {
-            try {
-                this.ds.getConnection().close();
-            } catch (final SQLException e) {
-                e.printStackTrace();
+            DataSourceProvider.release(this.ds);
+            if (this.readDs != this.ds) {
+                DataSourceProvider.release(this.readDs);
             }
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
@@ -98,37 +156,17 @@ public class MariaDBKVStorage<K, V> implements SQLStorage<K, V> {
     public CompletableFuture<Collection<V>> allValues() {
         return CompletableFuture.supplyAsync(() -> {
             final List<V> values = new ArrayList<>();
-            ResultSet set = query("SELECT * FROM " + this.table, statement -> {
-            }).join();
-
-            try {
-                while (set.next()) {
-                    values.add(StorageAPIConstants.getGson().fromJson(set.getString("data"), this.valueClass));
+            query("SELECT * FROM " + this.table + " WHERE " + NOT_EXPIRED, resultSet -> {
+                while (resultSet.next()) {
+                    V value = StorageAPIConstants.getGson().fromJson(getJson(resultSet), this.valueClass);
+                    values.add(value);
+                    if (changeTracker != null && readsPrimary()) {
+                        changeTracker.track(IdUtils.getId(this.valueClass, value), StorageAPIConstants.getGson().toJson(value));
+                    }
                 }
-                set.close();
-            } catch (final SQLException e) {
-                e.printStackTrace();
-            }
+            }).join();
 
             return values;
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
-
-    @Override
-    public CompletableFuture<Void> renameField(String path, String newPath) {
-        return CompletableFuture.runAsync(() -> {
-            execute("UPDATE " + this.table + " SET data = JSON_SET(data, '$." + newPath + "', JSON_EXTRACT(data, '$." + path + "'));");
-        }, StorageAPIConstants.DB_THREAD_POOL);
-    }
-
-    @Override
-    public CompletableFuture<Void> renameFields(Map<String, String> pathToNewPath) {
-        return CompletableFuture.runAsync(() -> {
-            pathToNewPath.forEach((path, newPath) -> {
-                this.execute("UPDATE " + this.table + " SET data = JSON_SET(data, '$." + newPath + "', JSON_EXTRACT(data, '$." + path + "'))," +
-                        " data = JSON_REMOVE(data, '$." + path + "')", statement -> {
-                });
-            });
-        }, StorageAPIConstants.DB_THREAD_POOL);
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,139 @@
+package wtf.casper.storageapi.impl.kvstorage;
+
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.KeyedStorage;
+import wtf.casper.storageapi.id.utils.IdUtils;
+import wtf.casper.storageapi.misc.ConstructableValue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps values in memory, nothing is persisted.
+ * Values are stored by reference, so changes to a returned value are visible to later reads.
+ */
+public class MemoryKVStorage<K, V> implements KeyedStorage<K, V>, ConstructableValue<K, V> {
+
+    private final Class<K> keyClass;
+    private final Class<V> valueClass;
+    private final Map<K, V> values = new ConcurrentHashMap<>();
+    private final Map<K, Long> expiresAt = new ConcurrentHashMap<>();
+
+    public MemoryKVStorage(final Class<K> keyClass, final Class<V> valueClass) {
+        this.keyClass = keyClass;
+        this.valueClass = valueClass;
+    }
+
+    @Override
+    public Class<K> key() {
+        return keyClass;
+    }
+
+    @Override
+    public Class<V> value() {
+        return valueClass;
+    }
+
+    @Override
+    public CompletableFuture<V> get(K key) {
+        return CompletableFuture.completedFuture(isExpired(key) ? null : values.get(key));
+    }
+
+    @Override
+    public CompletableFuture<Void> save(V value) {
+        Duration ttl = IdUtils.getTimeToLive(valueClass);
+        return ttl == null ? put(value, null) : save(value, ttl);
+    }
+
+    @Override
+    public CompletableFuture<Void> save(V value, Duration ttl) {
+        return put(value, System.currentTimeMillis() + ttl.toMillis());
+    }
+
+    private CompletableFuture<Void> put(V value, @Nullable Long expiry) {
+        IdUtils.touch(value);
+        K key = idOf(value);
+        values.put(key, value);
+        if (expiry == null) {
+            expiresAt.remove(key);
+        } else {
+            expiresAt.put(key, expiry);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> remove(V value) {
+        K key = idOf(value);
+        values.remove(key);
+        expiresAt.remove(key);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private K idOf(V value) {
+        return (K) IdUtils.getId(valueClass, value);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> contains(K key) {
+        return CompletableFuture.completedFuture(!isExpired(key) && values.containsKey(key));
+    }
+
+    @Override
+    public CompletableFuture<Long> estimatedSize() {
+        return CompletableFuture.completedFuture((long) values.size());
+    }
+
+    // expired values are dropped when they are seen
+    private boolean isExpired(K key) {
+        Long expiry = expiresAt.get(key);
+        if (expiry == null || expiry > System.currentTimeMillis()) {
+            return false;
+        }
+
+        if (expiresAt.remove(key, expiry)) {
+            values.remove(key);
+        }
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<Void> write() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAll() {
+        values.clear();
+        expiresAt.clear();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> renameField(String path, String newPath) {
+        // values are kept as objects, their fields are defined by the class
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> renameFields(Map<String, String> pathToNewPath) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Collection<V>> allValues() {
+        List<V> list = new ArrayList<>(values.size());
+        values.forEach((key, value) -> {
+            if (!isExpired(key)) {
+                list.add(value);
+            }
+        });
+        return CompletableFuture.completedFuture(list);
+    }
+}
@@ -1,53 +1,160 @@
 package wtf.casper.storageapi.impl.kvstorage;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
 import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.WriteModel;
 import lombok.Getter;
 import lombok.extern.java.Log;
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
 import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.types.Binary;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.Chunk;
 import wtf.casper.storageapi.Credentials;
 import wtf.casper.storageapi.id.utils.IdUtils;
+import wtf.casper.storageapi.misc.ChangeTracker;
 import wtf.casper.storageapi.misc.ConstructableValue;
+import wtf.casper.storageapi.misc.KeyFilter;
 import wtf.casper.storageapi.misc.MongoStorage;
 import wtf.casper.storageapi.misc.MongoProvider;
+import wtf.casper.storageapi.misc.SchemaTransform;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
 
+import java.lang.reflect.Field;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Log
 public class MongoKVStorage<K, V> implements wtf.casper.storageapi.KeyedStorage<K, V>, ConstructableValue<K, V>, MongoStorage {
 
+    private static final String EXPIRES_AT = "_expiresAt";
+
     private final Class<K> keyClass;
     private final Class<V> valueClass;
     private final String idFieldName;
     @Getter
     private final MongoCollection<Document> collection;
     private final ReplaceOptions replaceOptions = new ReplaceOptions().upsert(true);
+    private final ChangeTracker changeTracker;
+    private final AtomicBoolean expiryIndexed = new AtomicBoolean();
+    private final KeyFilter keyFilter;
+    private final boolean binaryKeys;
 
     public MongoKVStorage(final Class<K> keyClass, final Class<V> valueClass, final Credentials credentials) {
-        this(credentials.getUri(), credentials.getDatabase(), credentials.getCollection(), keyClass, valueClass);
+        this(credentials.getUri(), credentials.getDatabase(), credentials.getCollection(), keyClass, valueClass, credentials);
     }
 
     public MongoKVStorage(final String uri, final String database, final String collection, final Class<K> keyClass, final Class<V> valueClass) {
+        this(uri, database, collection, keyClass, valueClass, Credentials.builder().build());
+    }
+
+    private MongoKVStorage(final String uri, final String database, final String collection, final Class<K> keyClass, final Class<V> valueClass, final Credentials settings) {
         this.valueClass = valueClass;
         this.keyClass = keyClass;
         this.idFieldName = IdUtils.getIdName(this.valueClass);
+        this.binaryKeys = settings.getBinaryKeys(false) && UUID.class.isAssignableFrom(IdUtils.getIdClass(valueClass));
         MongoClient mongoClient;
         try {
-            mongoClient = MongoProvider.getClient(uri);
+            mongoClient = MongoProvider.getClient(uri, settings);
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Failed to connect to mongo");
         }
 
         MongoDatabase mongoDatabase = mongoClient.getDatabase(database);
-        this.collection = mongoDatabase.getCollection(collection);
+        this.collection = MongoProvider.configure(mongoDatabase.getCollection(collection), settings);
+        this.changeTracker = ChangeTracker.of(settings);
+
+        this.keyFilter = settings.getBloomFilterKeys(0) > 0 ? new KeyFilter(settings.getBloomFilterKeys(0)) : null;
+        if (this.keyFilter != null) {
+            this.keyFilter.build(this::keys);
+        }
+    }
+
+    /**
+     * @return the id in the format it is stored in {@code _id}, cursors are the string form of an id.
+     */
+    private Object encodeKey(Object key) {
+        if (!binaryKeys) {
+            return convertUUIDtoString(key);
+        }
+        return new BsonBinary(key instanceof UUID ? (UUID) key : UUID.fromString(key.toString()), UuidRepresentation.STANDARD);
+    }
+
+    /**
+     * @return the stored {@code _id} of a cursor.
+     */
+    private Object encodeCursor(String cursor) {
+        return encodeKey(cursorId(cursor, IdUtils.getIdClass(valueClass)));
+    }
+
+    /**
+     * @return the string form of a stored {@code _id}, used for cursors.
+     */
+    private String decodeKey(Object id) {
+        if (id instanceof Binary binary && binary.getType() == BsonBinarySubType.UUID_STANDARD.getValue()) {
+            return new BsonBinary(binary.getType(), binary.getData()).asUuid(UuidRepresentation.STANDARD).toString();
+        }
+        return String.valueOf(id);
+    }
+
+    /**
+     * Converts string uuid ids to binary subtype 4, this is a no-op if binary keys are disabled.
+     * It has to be called once before a collection with string ids is used with binary keys.
+     * Every document is rewritten under its new id before the old one is deleted, so an interrupted conversion can be run again.
+     *
+     * @return a future that will complete with the amount of converted documents.
+     */
+    public CompletableFuture<Long> convertKeys() {
+        return CompletableFuture.supplyAsync(() -> {
+            if (!binaryKeys) {
+                return 0L;
+            }
+
+            long count = 0;
+            while (true) {
+                List<Document> documents = getCollection().find(new Document("_id", new Document("$type", "string"))).limit(1000).into(new ArrayList<>());
+                if (documents.isEmpty()) {
+                    return count;
+                }
+
+                List<WriteModel<Document>> writes = new ArrayList<>(documents.size() * 2);
+                for (Document document : documents) {
+                    Object id = document.get("_id");
+                    Object key = encodeKey(id);
+                    writes.add(new ReplaceOneModel<>(new Document("_id", key), document.append("_id", key), replaceOptions));
+                    writes.add(new DeleteOneModel<>(new Document("_id", id)));
+                }
+                getCollection().bulkWrite(writes);
+                count += documents.size();
+            }
+        }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
     @Override
@@ -64,46 +171,198 @@ public class MongoKVStorage<K, V> implements wtf.casper.storageapi.KeyedStorage<
     public CompletableFuture<Void> deleteAll() {
         return CompletableFuture.runAsync(() -> {
             getCollection().deleteMany(new Document());
+            if (changeTracker != null) {
+                changeTracker.clear();
+            }
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
     @Override
     public CompletableFuture<V> get(K key) {
         return CompletableFuture.supplyAsync(() -> {
-            Document filter = new Document(idFieldName, convertUUIDtoString(key));
+            Document filter = new Document("_id", encodeKey(key)).append(EXPIRES_AT, notExpired());
             Document document = getCollection().find(filter).first();
 
             if (document == null) {
                 return null;
             }
 
-            return StorageAPIConstants.getGson().fromJson(document.toJson(StorageAPIConstants.getJsonWriterSettings()), valueClass);
+            V value = StorageAPIConstants.getGson().fromJson(document.toJson(StorageAPIConstants.getJsonWriterSettings()), valueClass);
+            // a snapshot of a stale secondary read would make a save of a changed value look unchanged
+            if (changeTracker != null && MongoProvider.readsPrimary(getCollection())) {
+                changeTracker.track(key, StorageAPIConstants.getGson().toJson(value));
+            }
+            return value;
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
     @Override
     public CompletableFuture<Void> save(V value) {
-        return CompletableFuture.runAsync(() -> {
-            K key = (K) IdUtils.getId(valueClass, value);
-            getCollection().replaceOne(
-                    new Document("_id", convertUUIDtoString(key)),
-                    Document.parse(StorageAPIConstants.getGson().toJson(value)),
-                    replaceOptions
-            );
-        }, StorageAPIConstants.DB_THREAD_POOL);
+        return CompletableFuture.runAsync(() -> saveValue(value, IdUtils.getTimeToLive(valueClass)), StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    @Override
+    public CompletableFuture<Void> save(V value, Duration ttl) {
+        return CompletableFuture.runAsync(() -> saveValue(value, ttl), StorageAPIConstants.DB_THREAD_POOL);
     }
 
     @Override
     public CompletableFuture<Void> saveAll(Collection<V> values) {
         return CompletableFuture.runAsync(() -> {
+            Duration ttl = IdUtils.getTimeToLive(valueClass);
+            Date expiresAt = expiresAt(ttl);
+            Map<K, String> saved = new LinkedHashMap<>();
+            List<WriteModel<Document>> writes = new ArrayList<>(values.size());
             for (V value : values) {
-                K key = (K) IdUtils.getId(valueClass, value);
-                getCollection().replaceOne(
-                        new Document("_id", convertUUIDtoString(key)),
-                        Document.parse(StorageAPIConstants.getGson().toJson(value)),
-                        replaceOptions
-                );
+                K key = idOf(value);
+                String json = StorageAPIConstants.getGson().toJson(value);
+                ChangeTracker.Diff diff = changeTracker == null ? null : changeTracker.diff(key, json);
+                if (diff != null && diff.isEmpty() && ttl == null) {
+                    continue;
+                }
+
+                if (IdUtils.touch(value)) {
+                    json = StorageAPIConstants.getGson().toJson(value);
+                }
+
+                Document document = Document.parse(json);
+                if (expiresAt != null) {
+                    document.append(EXPIRES_AT, expiresAt);
+                }
+                writes.add(new ReplaceOneModel<>(new Document("_id", encodeKey(key)), document, replaceOptions));
+                saved.put(key, json);
+            }
+
+            if (writes.isEmpty()) {
+                return;
             }
+
+            // unordered so one failing document doesn't stop the rest of the batch
+            getCollection().bulkWrite(writes, new BulkWriteOptions().ordered(false));
+            saved.forEach((key, json) -> {
+                if (changeTracker != null) {
+                    changeTracker.track(key, json);
+                }
+                if (keyFilter != null) {
+                    keyFilter.put(convertUUIDtoString(key));
+                }
+            });
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    @SuppressWarnings("unchecked")
+    private K idOf(V value) {
+        return (K) IdUtils.getId(valueClass, value);
+    }
+
+    private void saveValue(V value, @Nullable Duration ttl) {
+        K key = idOf(value);
+        String json = StorageAPIConstants.getGson().toJson(value);
+        Document filter = new Document("_id", encodeKey(key));
+
+        ChangeTracker.Diff diff = changeTracker == null ? null : changeTracker.diff(key, json);
+        // an unchanged value still needs its expiry moved
+        if (diff != null && diff.isEmpty() && ttl == null) {
+            return;
+        }
+
+        // only stamp values that actually changed, otherwise every save would be a change
+        if (IdUtils.touch(value)) {
+            json = StorageAPIConstants.getGson().toJson(value);
+            diff = changeTracker == null ? null : changeTracker.diff(key, json);
+        }
+
+        Date expiresAt = expiresAt(ttl);
+        if (diff != null) {
+            Document update = diff.toMongoUpdate();
+            if (expiresAt != null) {
+                ((Document) update.computeIfAbsent("$set", k -> new Document())).append(EXPIRES_AT, expiresAt);
+            } else {
+                ((Document) update.computeIfAbsent("$unset", k -> new Document())).append(EXPIRES_AT, "");
+            }
+
+            if (getCollection().updateOne(filter, update).getMatchedCount() > 0) {
+                changeTracker.track(key, json);
+                return;
+            }
+        }
+
+        Document document = Document.parse(json);
+        if (expiresAt != null) {
+            document.append(EXPIRES_AT, expiresAt);
+        }
+        getCollection().replaceOne(filter, document, replaceOptions);
+        if (changeTracker != null) {
+            changeTracker.track(key, json);
+        }
+        if (keyFilter != null) {
+            keyFilter.put(convertUUIDtoString(key));
+        }
+    }
+
+    @Nullable
+    private Date expiresAt(@Nullable Duration ttl) {
+        if (ttl == null) {
+            return null;
+        }
+
+        // mongo deletes documents once the date in a ttl index has passed
+        if (expiryIndexed.compareAndSet(false, true)) {
+            getCollection().createIndex(Indexes.ascending(EXPIRES_AT), new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
+        }
+        return new Date(System.currentTimeMillis() + ttl.toMillis());
+    }
+
+    // the ttl monitor only runs about once a minute, documents it didn't delete yet still have to be hidden
+    private Document notExpired() {
+        return new Document("$not", new Document("$lte", new Date()));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> replace(V value, @Nullable Long expectedVersion) {
+        Field versionField = IdUtils.getVersionField(valueClass);
+        if (versionField == null) {
+            return save(value).thenApply(v -> true);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            K key = idOf(value);
+            IdUtils.setVersion(versionField, value, expectedVersion == null ? 1 : expectedVersion + 1);
+            IdUtils.touch(value);
+            String json = StorageAPIConstants.getGson().toJson(value);
+            Document document = Document.parse(json);
+            Date expiresAt = expiresAt(IdUtils.getTimeToLive(valueClass));
+            if (expiresAt != null) {
+                document.append(EXPIRES_AT, expiresAt);
+            }
+
+            boolean written;
+            if (expectedVersion == null) {
+                // an expired document that wasn't deleted yet counts as absent
+                getCollection().deleteOne(new Document("_id", encodeKey(key)).append(EXPIRES_AT, new Document("$lte", new Date())));
+                try {
+                    getCollection().insertOne(document.append("_id", encodeKey(key)));
+                    written = true;
+                } catch (MongoWriteException e) {
+                    if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                        throw e;
+                    }
+                    written = false;
+                }
+            } else {
+                // values saved before they were versioned don't have the field yet
+                Object version = expectedVersion == 0 ? new Document("$in", Arrays.asList(0, null)) : expectedVersion;
+                Document filter = new Document("_id", encodeKey(key)).append(versionField.getName(), version).append(EXPIRES_AT, notExpired());
+                written = getCollection().replaceOne(filter, document).getMatchedCount() > 0;
+            }
+
+            if (changeTracker != null && written) {
+                changeTracker.track(key, json);
+            }
+            if (keyFilter != null && written) {
+                keyFilter.put(convertUUIDtoString(key));
+            }
+            return written;
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
@@ -111,14 +370,35 @@ public class MongoKVStorage<K, V> implements wtf.casper.storageapi.KeyedStorage<
     public CompletableFuture<Void> remove(V key) {
         return CompletableFuture.runAsync(() -> {
             try {
-                K id = (K) IdUtils.getId(valueClass, key);
-                getCollection().deleteMany(new Document(idFieldName, convertUUIDtoString(id)));
+                K id = idOf(key);
+                getCollection().deleteOne(new Document("_id", encodeKey(id)));
+                if (changeTracker != null) {
+                    changeTracker.forget(id);
+                }
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
+    @Override
+    public CompletableFuture<Boolean> contains(K key) {
+        Object id = convertUUIDtoString(key);
+        if (keyFilter != null && !keyFilter.mightContain(id)) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            Document filter = new Document("_id", encodeKey(key)).append(EXPIRES_AT, notExpired());
+            return getCollection().countDocuments(filter, new CountOptions().limit(1)) > 0;
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    @Override
+    public CompletableFuture<Long> estimatedSize() {
+        return CompletableFuture.supplyAsync(() -> getCollection().estimatedDocumentCount(), StorageAPIConstants.DB_THREAD_POOL);
+    }
+
     @Override
     public CompletableFuture<Void> write() {
         // No need to write to mongo
@@ -134,12 +414,15 @@ public class MongoKVStorage<K, V> implements wtf.casper.storageapi.KeyedStorage<
     @Override
     public CompletableFuture<Collection<V>> allValues() {
         return CompletableFuture.supplyAsync(() -> {
-            List<Document> into = getCollection().find().into(new ArrayList<>());
+            List<Document> into = getCollection().find(new Document(EXPIRES_AT, notExpired())).into(new ArrayList<>());
             List<V> collection = new ArrayList<>();
 
             for (Document document : into) {
                 V obj = StorageAPIConstants.getGson().fromJson(document.toJson(StorageAPIConstants.getJsonWriterSettings()), valueClass);
                 collection.add(obj);
+                if (changeTracker != null && MongoProvider.readsPrimary(getCollection())) {
+                    changeTracker.track(IdUtils.getId(valueClass, obj), StorageAPIConstants.getGson().toJson(obj));
+                }
             }
 
             return collection;
@@ -147,24 +430,102 @@ public class MongoKVStorage<K, V> implements wtf.casper.storageapi.KeyedStorage<
     }
 
     @Override
-    public CompletableFuture<Void> renameFields(Map<String, String> pathToNewPath) {
-        return CompletableFuture.runAsync(() -> {
-            for (Map.Entry<String, String> entry : pathToNewPath.entrySet()) {
-                getCollection().updateMany(
-                        new Document(),
-                        new Document("$rename", new Document(entry.getKey(), entry.getValue()))
-                );
+    public CompletableFuture<Chunk<V>> chunk(@Nullable String cursor, int limit) {
+        return chunk(new Document(), cursor, limit);
+    }
+
+    @Override
+    public CompletableFuture<Chunk<V>> changedSince(long since, @Nullable String cursor, int limit) {
+        Field updatedAtField = IdUtils.getUpdatedAtField(valueClass);
+        if (updatedAtField == null) {
+            return chunk(cursor, limit);
+        }
+        return chunk(new Document(updatedAtField.getName(), new Document("$gte", since)), cursor, limit);
+    }
+
+    private CompletableFuture<Chunk<V>> chunk(Document filter, @Nullable String cursor, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            filter.append(EXPIRES_AT, notExpired());
+            if (cursor != null) {
+                filter.append("_id", new Document("$gt", encodeCursor(cursor)));
+            }
+            List<Document> documents = getCollection().find(filter)
+                    .sort(Sorts.ascending("_id"))
+                    .limit(limit)
+                    .into(new ArrayList<>());
+
+            List<V> values = new ArrayList<>(documents.size());
+            for (Document document : documents) {
+                values.add(StorageAPIConstants.getGson().fromJson(document.toJson(StorageAPIConstants.getJsonWriterSettings()), valueClass));
             }
+
+            String last = documents.isEmpty() ? null : decodeKey(documents.get(documents.size() - 1).get("_id"));
+            return Chunk.of(values, last, limit);
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
     @Override
-    public CompletableFuture<Void> renameField(String path, String newPath) {
-        return CompletableFuture.runAsync(() -> {
-            getCollection().updateMany(
-                    new Document(),
-                    new Document("$rename", new Document(path, newPath))
-            );
+    public CompletableFuture<Chunk<String>> keys(@Nullable String cursor, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            Document filter = cursor == null ? new Document() : new Document("_id", new Document("$gt", encodeCursor(cursor)));
+            List<String> ids = new ArrayList<>();
+            for (Document document : getCollection().find(filter).projection(Projections.include("_id")).sort(Sorts.ascending("_id")).limit(limit)) {
+                ids.add(decodeKey(document.get("_id")));
+            }
+            return Chunk.of(ids, ids.isEmpty() ? null : ids.get(ids.size() - 1), limit);
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
+
+    @Override
+    public CompletableFuture<Long> transform(SchemaTransform transform) {
+        if (changeTracker != null) {
+            changeTracker.clear();
+        }
+
+        return transform.run(this::keys, (after, upTo) -> {
+            Document range = new Document("$lte", encodeCursor(upTo));
+            if (after != null) {
+                range.append("$gt", encodeCursor(after));
+            }
+            Document filter = new Document("_id", range);
+
+            if (transform.isNative()) {
+                Document update = new Document();
+                if (!transform.renames().isEmpty()) {
+                    update.append("$rename", new Document(transform.renames()));
+                }
+                if (!transform.removals().isEmpty()) {
+                    Document unset = new Document();
+                    transform.removals().forEach(path -> unset.append(path, ""));
+                    update.append("$unset", unset);
+                }
+                if (!update.isEmpty()) {
+                    getCollection().updateMany(filter, update);
+                }
+                return;
+            }
+
+            List<ReplaceOneModel<Document>> writes = new ArrayList<>();
+            for (Document document : getCollection().find(filter)) {
+                Object id = document.remove("_id");
+                JsonObject json = JsonParser.parseString(document.toJson(StorageAPIConstants.getJsonWriterSettings())).getAsJsonObject();
+                writes.add(new ReplaceOneModel<>(new Document("_id", id), Document.parse(transform.apply(json).toString())));
+            }
+            if (!writes.isEmpty()) {
+                getCollection().bulkWrite(writes);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> renameFields(Map<String, String> pathToNewPath) {
+        return transform(SchemaTransform.builder().renames(pathToNewPath).build()).thenAccept(count -> {
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> renameField(String path, String newPath) {
+        return transform(SchemaTransform.builder().rename(path, newPath).build()).thenAccept(count -> {
+        });
+    }
 }
@@ -0,0 +1,233 @@
+package wtf.casper.storageapi.impl.kvstorage;
+
+import lombok.Getter;
+import lombok.extern.java.Log;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.Chunk;
+import wtf.casper.storageapi.KeyedStorage;
+import wtf.casper.storageapi.id.utils.IdUtils;
+import wtf.casper.storageapi.misc.KeyValue;
+import wtf.casper.storageapi.misc.SchemaTransform;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Layers a fast local storage (hot) over a remote storage (cold).
+ * Reads are served from the hot tier and promote values from the cold tier on a miss,
+ * writes go through to both tiers so the cold tier is always up-to-date,
+ * and values that weren't accessed for the idle time are dropped from the hot tier.
+ */
+@Log
+public class TieredKeyedStorage<K, V> implements KeyedStorage<K, V>, KeyValue<K, V> {
+
+    private final Class<K> keyClass;
+    private final Class<V> valueClass;
+    @Getter
+    private final KeyedStorage<K, V> hot;
+    @Getter
+    private final KeyedStorage<K, V> cold;
+    private final long idleMillis;
+    private final Map<K, Long> lastAccess = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> demotionTask;
+
+    /**
+     * Uses a {@link MemoryKVStorage} as the hot tier.
+     */
+    public TieredKeyedStorage(final Class<K> keyClass, final Class<V> valueClass, final KeyedStorage<K, V> cold, final Duration idleTime) {
+        this(keyClass, valueClass, new MemoryKVStorage<>(keyClass, valueClass), cold, idleTime);
+    }
+
+    public TieredKeyedStorage(final Class<K> keyClass, final Class<V> valueClass, final KeyedStorage<K, V> hot, final KeyedStorage<K, V> cold, final Duration idleTime) {
+        this.keyClass = keyClass;
+        this.valueClass = valueClass;
+        this.hot = hot;
+        this.cold = cold;
+        this.idleMillis = idleTime.toMillis();
+
+        long period = Math.max(1000, idleMillis / 2);
+        this.demotionTask = StorageAPIConstants.SCHEDULER.scheduleAtFixedRate(
+                () -> CompletableFuture.runAsync(this::demoteIdle, StorageAPIConstants.DB_THREAD_POOL),
+                period, period, TimeUnit.MILLISECONDS
+        );
+    }
+
+    @Override
+    public Class<K> key() {
+        return keyClass;
+    }
+
+    @Override
+    public Class<V> value() {
+        return valueClass;
+    }
+
+    @Override
+    public CompletableFuture<V> get(K key) {
+        return hot.get(key).thenCompose(value -> {
+            if (value != null) {
+                lastAccess.put(key, System.currentTimeMillis());
+                return CompletableFuture.completedFuture(value);
+            }
+            return promote(key, false);
+        });
+    }
+
+    @Override
+    public CompletableFuture<V> get(K key, boolean primary) {
+        return primary ? promote(key, true) : get(key);
+    }
+
+    @Override
+    public CompletableFuture<Void> save(V value) {
+        lastAccess.put(idOf(value), System.currentTimeMillis());
+        return CompletableFuture.allOf(cold.save(value), hot.save(value));
+    }
+
+    @Override
+    public CompletableFuture<Void> save(V value, Duration ttl) {
+        lastAccess.put(idOf(value), System.currentTimeMillis());
+        return CompletableFuture.allOf(cold.save(value, ttl), hot.save(value, ttl));
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAll(Collection<V> values) {
+        long now = System.currentTimeMillis();
+        for (V value : values) {
+            lastAccess.put(idOf(value), now);
+        }
+        return CompletableFuture.allOf(cold.saveAll(values), hot.saveAll(values));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> replace(V value, @Nullable Long expectedVersion) {
+        // the cold tier is the source of truth for versions
+        return cold.replace(value, expectedVersion).thenCompose(written -> {
+            if (!written) {
+                return CompletableFuture.completedFuture(false);
+            }
+            lastAccess.put(idOf(value), System.currentTimeMillis());
+            return hot.save(value).thenApply(v -> true);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> remove(V value) {
+        lastAccess.remove(idOf(value));
+        return CompletableFuture.allOf(hot.remove(value), cold.remove(value));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> contains(K key) {
+        return hot.contains(key).thenCompose(contains -> contains ? CompletableFuture.completedFuture(true) : cold.contains(key));
+    }
+
+    @Override
+    public CompletableFuture<Long> estimatedSize() {
+        return cold.estimatedSize();
+    }
+
+    @Override
+    public CompletableFuture<Void> write() {
+        return hot.write().thenCompose(v -> cold.write());
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAll() {
+        lastAccess.clear();
+        return CompletableFuture.allOf(hot.deleteAll(), cold.deleteAll());
+    }
+
+    @Override
+    public CompletableFuture<Void> close() {
+        demotionTask.cancel(false);
+        return write()
+                .thenCompose(v -> hot.close())
+                .thenCompose(v -> cold.close());
+    }
+
+    @Override
+    public CompletableFuture<Void> renameField(String path, String newPath) {
+        return cold.renameField(path, newPath).thenCompose(v -> evictAll());
+    }
+
+    @Override
+    public CompletableFuture<Void> renameFields(Map<String, String> pathToNewPath) {
+        return cold.renameFields(pathToNewPath).thenCompose(v -> evictAll());
+    }
+
+    @Override
+    public CompletableFuture<Long> transform(SchemaTransform transform) {
+        return cold.transform(transform).thenCompose(count -> evictAll().thenApply(v -> count));
+    }
+
+    @Override
+    public CompletableFuture<Collection<V>> allValues() {
+        return cold.allValues();
+    }
+
+    @Override
+    public CompletableFuture<Chunk<V>> chunk(@Nullable String cursor, int limit) {
+        return cold.chunk(cursor, limit);
+    }
+
+    @Override
+    public CompletableFuture<Chunk<V>> changedSince(long since, @Nullable String cursor, int limit) {
+        return cold.changedSince(since, cursor, limit);
+    }
+
+    private CompletableFuture<V> promote(final K key, final boolean primary) {
+        return cold.get(key, primary).thenCompose(value -> {
+            if (value == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            lastAccess.put(key, System.currentTimeMillis());
+            return hot.save(value).thenApply(v -> value);
+        });
+    }
+
+    private CompletableFuture<Void> evictAll() {
+        lastAccess.clear();
+        return hot.deleteAll();
+    }
+
+    private void demoteIdle() {
+        long threshold = System.currentTimeMillis() - idleMillis;
+        List<Map.Entry<K, Long>> idle = new ArrayList<>();
+        lastAccess.forEach((key, time) -> {
+            if (time < threshold) {
+                idle.add(Map.entry(key, time));
+            }
+        });
+
+        for (Map.Entry<K, Long> entry : idle) {
+            // skip keys that were touched again since they were collected
+            if (!lastAccess.remove(entry.getKey(), entry.getValue())) {
+                continue;
+            }
+
+            try {
+                V value = hot.get(entry.getKey()).join();
+                if (value != null) {
+                    hot.remove(value).join();
+                }
+            } catch (Exception e) {
+                log.warning("Failed to demote " + entry.getKey() + " from the hot tier");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private K idOf(final V value) {
+        return (K) IdUtils.getId(valueClass, value);
+    }
+}
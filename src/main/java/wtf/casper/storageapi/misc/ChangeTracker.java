@@ -0,0 +1,231 @@
+package wtf.casper.storageapi.misc;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.bson.Document;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.Credentials;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the serialized form of values loaded from a storage so that later saves
+ * can skip unchanged values and only send the changed paths.
+ * Snapshots are kept as json strings, the least recently used ones are evicted once the maximum size is reached
+ * and values without a snapshot are simply written whole.
+ * Only values read from the primary should be tracked, a stale snapshot would make a save of a changed value look unchanged.
+ */
+public class ChangeTracker {
+    public static final long DEFAULT_MAXIMUM_SIZE = 10_000;
+
+    private final Cache<Object, String> snapshots;
+
+    public ChangeTracker() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param maximumSize the maximum amount of values a snapshot is kept of.
+     */
+    public ChangeTracker(final long maximumSize) {
+        this.snapshots = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                // evict on the calling thread so the size never runs ahead of the bound
+                .executor(Runnable::run)
+                .build();
+    }
+
+    /**
+     * @return a tracker bounded by {@link Credentials#getTrackedValues(long)}, or null if change tracking is disabled.
+     */
+    @Nullable
+    public static ChangeTracker of(final Credentials credentials) {
+        if (!credentials.getTrackChanges(false)) {
+            return null;
+        }
+        return new ChangeTracker(credentials.getTrackedValues(DEFAULT_MAXIMUM_SIZE));
+    }
+
+    /**
+     * Stores the serialized form of a value as it currently exists in the storage.
+     * @param id the id of the value.
+     * @param json the serialized value.
+     */
+    public void track(final Object id, final String json) {
+        if (id == null || json == null) {
+            return;
+        }
+        snapshots.put(id, json);
+    }
+
+    public void forget(final Object id) {
+        if (id == null) {
+            return;
+        }
+        snapshots.invalidate(id);
+    }
+
+    public void clear() {
+        snapshots.invalidateAll();
+    }
+
+    /**
+     * @return the approximate amount of values a snapshot is kept of.
+     */
+    public long size() {
+        return snapshots.estimatedSize();
+    }
+
+    /**
+     * @param id the id of the value.
+     * @param json the serialized value that is about to be saved.
+     * @return the paths that changed since the last snapshot, or null if there is no snapshot
+     * or the change can't be expressed as a path patch and the full value must be written.
+     */
+    @Nullable
+    public Diff diff(final Object id, final String json) {
+        if (id == null) {
+            return null;
+        }
+
+        String snapshot = snapshots.getIfPresent(id);
+        if (snapshot == null) {
+            return null;
+        }
+
+        if (snapshot.equals(json)) {
+            return Diff.EMPTY;
+        }
+
+        JsonElement before = JsonParser.parseString(snapshot);
+        JsonElement after = JsonParser.parseString(json);
+        if (!before.isJsonObject() || !after.isJsonObject()) {
+            return null;
+        }
+
+        Diff diff = new Diff(new LinkedHashMap<>(), new ArrayList<>());
+        if (!diff(null, before.getAsJsonObject(), after.getAsJsonObject(), diff)) {
+            return null;
+        }
+        return diff;
+    }
+
+    private boolean diff(@Nullable final String prefix, final JsonObject before, final JsonObject after, final Diff diff) {
+        for (Map.Entry<String, JsonElement> entry : after.entrySet()) {
+            if (!isSafeKey(entry.getKey())) {
+                return false;
+            }
+
+            String path = prefix == null ? entry.getKey() : prefix + "." + entry.getKey();
+            JsonElement old = before.get(entry.getKey());
+            if (old == null || old.isJsonObject() != entry.getValue().isJsonObject()) {
+                diff.set().put(path, entry.getValue());
+                continue;
+            }
+
+            if (old.isJsonObject()) {
+                if (!diff(path, old.getAsJsonObject(), entry.getValue().getAsJsonObject(), diff)) {
+                    return false;
+                }
+                continue;
+            }
+
+            if (!old.equals(entry.getValue())) {
+                diff.set().put(path, entry.getValue());
+            }
+        }
+
+        for (String key : before.keySet()) {
+            if (after.has(key)) {
+                continue;
+            }
+            if (!isSafeKey(key)) {
+                return false;
+            }
+            diff.unset().add(prefix == null ? key : prefix + "." + key);
+        }
+        return true;
+    }
+
+    // keys that would need quoting in a mongo update path or a sql json path can't be patched
+    private boolean isSafeKey(final String key) {
+        if (key.isEmpty() || Character.isDigit(key.charAt(0))) {
+            return false;
+        }
+
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param set the dotted paths that need to be set to a new value.
+     * @param unset the dotted paths that no longer exist.
+     */
+    public record Diff(Map<String, JsonElement> set, List<String> unset) {
+        public static final Diff EMPTY = new Diff(Map.of(), List.of());
+
+        public boolean isEmpty() {
+            return set.isEmpty() && unset.isEmpty();
+        }
+
+        /**
+         * @return the $set/$unset update document for this diff.
+         */
+        public Document toMongoUpdate() {
+            JsonObject update = new JsonObject();
+            if (!set.isEmpty()) {
+                JsonObject setObject = new JsonObject();
+                set.forEach(setObject::add);
+                update.add("$set", setObject);
+            }
+            if (!unset.isEmpty()) {
+                JsonObject unsetObject = new JsonObject();
+                unset.forEach(path -> unsetObject.addProperty(path, ""));
+                update.add("$unset", unsetObject);
+            }
+            return Document.parse(update.toString());
+        }
+
+        /**
+         * @param column the json column to patch.
+         * @return a JSON_SET/JSON_REMOVE expression for this diff, parameters are bound by {@link #sqlParameters()}.
+         */
+        public String toSqlExpression(final String column) {
+            String expression = column;
+            if (!set.isEmpty()) {
+                StringBuilder builder = new StringBuilder("JSON_SET(").append(expression);
+                for (String path : set.keySet()) {
+                    builder.append(", '$.").append(path).append("', JSON_EXTRACT(?, '$')");
+                }
+                expression = builder.append(")").toString();
+            }
+            if (!unset.isEmpty()) {
+                StringBuilder builder = new StringBuilder("JSON_REMOVE(").append(expression);
+                for (String path : unset) {
+                    builder.append(", '$.").append(path).append("'");
+                }
+                expression = builder.append(")").toString();
+            }
+            return expression;
+        }
+
+        public List<String> sqlParameters() {
+            List<String> parameters = new ArrayList<>();
+            for (JsonElement element : set.values()) {
+                parameters.add(element.toString());
+            }
+            return parameters;
+        }
+    }
+}
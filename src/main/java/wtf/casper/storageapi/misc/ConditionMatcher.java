@@ -0,0 +1,266 @@
+package wtf.casper.storageapi.misc;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.Condition;
+import wtf.casper.storageapi.ConditionType;
+import wtf.casper.storageapi.Expression;
+import wtf.casper.storageapi.Query;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Evaluates query conditions against the json form of a value in memory.
+ * The result errs on the side of a match: whenever the outcome on the database can't be predicted
+ * (missing fields, objects, mismatched types) the condition is treated as matching.
+ */
+public final class ConditionMatcher {
+
+    private ConditionMatcher() {
+    }
+
+    /**
+     * @param expression the conditions of a query, see {@link Query#expression()}.
+     * @return false if the value definitely doesn't match the conditions, true if it might.
+     */
+    public static boolean mightMatch(@Nullable final Expression expression, final Object value) {
+        if (expression == null) {
+            return true;
+        }
+
+        JsonElement json = StorageAPIConstants.getGson().toJsonTree(value);
+        if (!json.isJsonObject()) {
+            return true;
+        }
+        return mightMatch(expression, json.getAsJsonObject());
+    }
+
+    private static boolean mightMatch(final Expression expression, final JsonObject json) {
+        if (expression instanceof Condition condition) {
+            return mightMatch(condition, resolve(json, condition.key()));
+        }
+        if (expression instanceof Expression.Not not) {
+            return !mustMatch(not.expression(), json);
+        }
+        if (expression instanceof Expression.And and) {
+            return and.expressions().stream().allMatch(child -> mightMatch(child, json));
+        }
+        return ((Expression.Or) expression).expressions().stream().anyMatch(child -> mightMatch(child, json));
+    }
+
+    /**
+     * The counterpart of {@link #mightMatch(Expression, JsonObject)} for negations, true only if the value definitely matches.
+     */
+    private static boolean mustMatch(final Expression expression, final JsonObject json) {
+        if (expression instanceof Condition condition) {
+            return mustMatch(condition, resolve(json, condition.key()));
+        }
+        if (expression instanceof Expression.Not not) {
+            return !mightMatch(not.expression(), json);
+        }
+        if (expression instanceof Expression.And and) {
+            return and.expressions().stream().allMatch(child -> mustMatch(child, json));
+        }
+        return ((Expression.Or) expression).expressions().stream().anyMatch(child -> mustMatch(child, json));
+    }
+
+    /**
+     * Only conditions that compare values of the same kind are predictable, string matching depends on the collation of the database.
+     */
+    private static boolean mustMatch(final Condition condition, @Nullable final JsonElement actual) {
+        switch (condition.conditionType()) {
+            case EXISTS, IS_NULL -> {
+                return mightMatch(condition, actual);
+            }
+            case EQUALS, NOT_EQUALS, IN, NOT_IN -> {
+                return actual != null && actual.isJsonPrimitive() && sameKind(condition, actual.getAsJsonPrimitive(), true) && mightMatch(condition, actual);
+            }
+            case LESS_THAN, NOT_GREATER_THAN_OR_EQUAL_TO, LESS_THAN_OR_EQUAL_TO, NOT_GREATER_THAN, GREATER_THAN, NOT_LESS_THAN_OR_EQUAL_TO,
+                    GREATER_THAN_OR_EQUAL_TO, NOT_LESS_THAN, BETWEEN -> {
+                return actual != null && actual.isJsonPrimitive() && sameKind(condition, actual.getAsJsonPrimitive(), false) && mightMatch(condition, actual);
+            }
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    private static boolean sameKind(final Condition condition, final JsonPrimitive actual, final boolean booleans) {
+        List<?> values = switch (condition.conditionType()) {
+            case IN, NOT_IN, BETWEEN -> condition.values();
+            default -> Collections.singletonList(condition.value());
+        };
+        for (Object value : values) {
+            JsonElement element = StorageAPIConstants.getGson().toJsonTree(value);
+            if (!element.isJsonPrimitive()) {
+                return false;
+            }
+            JsonPrimitive expected = element.getAsJsonPrimitive();
+            boolean same = (actual.isNumber() && expected.isNumber()) || (actual.isString() && expected.isString())
+                    || (booleans && actual.isBoolean() && expected.isBoolean());
+            if (!same) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean mightMatch(final Condition condition, @Nullable final JsonElement actual) {
+        switch (condition.conditionType()) {
+            case EXISTS -> {
+                return (actual != null && !actual.isJsonNull()) != Boolean.FALSE.equals(condition.value());
+            }
+            case IS_NULL -> {
+                return actual == null || actual.isJsonNull();
+            }
+            case IN, NOT_IN, BETWEEN -> {
+                return actual == null || !actual.isJsonPrimitive() || mightMatch(condition, condition.values(), actual.getAsJsonPrimitive());
+            }
+        }
+        if (actual != null && actual.isJsonArray() && condition.value() != null) {
+            return mightContain(condition, actual.getAsJsonArray());
+        }
+        if (actual == null || !actual.isJsonPrimitive() || condition.value() == null) {
+            return true;
+        }
+
+        JsonElement expectedElement = StorageAPIConstants.getGson().toJsonTree(condition.value());
+        if (!expectedElement.isJsonPrimitive()) {
+            return true;
+        }
+
+        JsonPrimitive value = actual.getAsJsonPrimitive();
+        JsonPrimitive expected = expectedElement.getAsJsonPrimitive();
+        switch (condition.conditionType()) {
+            case EQUALS -> {
+                return equals(value, expected);
+            }
+            case NOT_EQUALS -> {
+                return !equals(value, expected);
+            }
+            case EQUALS_IGNORE_CASE -> {
+                return lower(value).equals(lower(expected));
+            }
+            case STARTS_WITH, STARTS_WITH_IGNORE_CASE -> {
+                return lower(value).startsWith(lower(expected));
+            }
+            case NOT_STARTS_WITH -> {
+                return !lower(value).startsWith(lower(expected));
+            }
+            case ENDS_WITH -> {
+                return lower(value).endsWith(lower(expected));
+            }
+            case NOT_ENDS_WITH -> {
+                return !lower(value).endsWith(lower(expected));
+            }
+            case CONTAINS -> {
+                return lower(value).contains(lower(expected));
+            }
+            case NOT_CONTAINS -> {
+                return !lower(value).contains(lower(expected));
+            }
+            case LESS_THAN, NOT_GREATER_THAN_OR_EQUAL_TO -> {
+                Integer compared = compare(value, expected);
+                return compared == null || compared < 0;
+            }
+            case LESS_THAN_OR_EQUAL_TO, NOT_GREATER_THAN -> {
+                Integer compared = compare(value, expected);
+                return compared == null || compared <= 0;
+            }
+            case GREATER_THAN, NOT_LESS_THAN_OR_EQUAL_TO -> {
+                Integer compared = compare(value, expected);
+                return compared == null || compared > 0;
+            }
+            case GREATER_THAN_OR_EQUAL_TO, NOT_LESS_THAN -> {
+                Integer compared = compare(value, expected);
+                return compared == null || compared >= 0;
+            }
+            default -> {
+                return true;
+            }
+        }
+    }
+
+    private static boolean mightMatch(final Condition condition, final List<?> values, final JsonPrimitive value) {
+        List<JsonPrimitive> expected = new ArrayList<>();
+        for (Object object : values) {
+            JsonElement element = StorageAPIConstants.getGson().toJsonTree(object);
+            if (!element.isJsonPrimitive()) {
+                return true;
+            }
+            expected.add(element.getAsJsonPrimitive());
+        }
+
+        if (condition.conditionType() == ConditionType.BETWEEN) {
+            Integer lower = compare(value, expected.get(0));
+            Integer upper = compare(value, expected.get(1));
+            return lower == null || upper == null || (lower >= 0 && upper <= 0);
+        }
+
+        boolean contained = expected.stream().anyMatch(element -> equals(value, element));
+        return condition.conditionType() == ConditionType.IN ? contained : !contained;
+    }
+
+    /**
+     * CONTAINS on an array is membership of an element, like the storages compile it.
+     */
+    private static boolean mightContain(final Condition condition, final JsonArray actual) {
+        JsonElement expected = StorageAPIConstants.getGson().toJsonTree(condition.value());
+        if (!expected.isJsonPrimitive()) {
+            return true;
+        }
+
+        boolean contains = false;
+        for (JsonElement element : actual) {
+            if (element.isJsonPrimitive() && equals(element.getAsJsonPrimitive(), expected.getAsJsonPrimitive())) {
+                contains = true;
+                break;
+            }
+        }
+        return switch (condition.conditionType()) {
+            case CONTAINS -> contains;
+            case NOT_CONTAINS -> !contains;
+            default -> true;
+        };
+    }
+
+    @Nullable
+    private static JsonElement resolve(final JsonObject json, final String path) {
+        JsonElement current = json;
+        for (String key : path.split("\\.")) {
+            if (current == null || !current.isJsonObject()) {
+                return null;
+            }
+            current = current.getAsJsonObject().get(key);
+        }
+        return current;
+    }
+
+    private static boolean equals(final JsonPrimitive value, final JsonPrimitive expected) {
+        if (value.isNumber() && expected.isNumber()) {
+            return value.getAsBigDecimal().compareTo(expected.getAsBigDecimal()) == 0;
+        }
+        return value.equals(expected);
+    }
+
+    @Nullable
+    private static Integer compare(final JsonPrimitive value, final JsonPrimitive expected) {
+        if (value.isNumber() && expected.isNumber()) {
+            return value.getAsBigDecimal().compareTo(expected.getAsBigDecimal());
+        }
+        if (value.isString() && expected.isString()) {
+            return value.getAsString().compareTo(expected.getAsString());
+        }
+        return null;
+    }
+
+    private static String lower(final JsonPrimitive primitive) {
+        return primitive.getAsString().toLowerCase();
+    }
+}
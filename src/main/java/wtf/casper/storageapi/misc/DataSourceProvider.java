@@ -0,0 +1,181 @@
+package wtf.casper.storageapi.misc;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.java.Log;
+import wtf.casper.storageapi.Credentials;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Shares connection pools between storages that connect to the same database as the same user.
+ * Every {@link #acquire(HikariConfig)} must be paired with a {@link #release(HikariDataSource)},
+ * the pool is closed once the last storage that uses it released it.
+ * The pool is created with the settings of the first storage that acquires it, later differing settings are ignored with a warning.
+ */
+@Log
+public class DataSourceProvider {
+    private static final Map<String, Shared> pools = new HashMap<>();
+
+    /**
+     * Creates the config for a pool with the pool options of the credentials.
+     *
+     * @param driver the jdbc driver class name.
+     * @param url the jdbc url including the database and driver parameters.
+     */
+    public static HikariConfig config(final String driver, final String url, final String username, final String password, final Credentials credentials) {
+        HikariConfig config = new HikariConfig();
+        config.setDriverClassName(driver);
+        config.setJdbcUrl(url);
+        config.addDataSourceProperty("user", username);
+        config.addDataSourceProperty("password", password);
+        config.setMaximumPoolSize(credentials.getMaxPoolSize(20));
+
+        long idleTimeout = credentials.getIdleTimeout(0);
+        int minPoolSize = credentials.getMinPoolSize(-1);
+        if (minPoolSize >= 0) {
+            config.setMinimumIdle(Math.min(minPoolSize, config.getMaximumPoolSize()));
+        } else if (idleTimeout > 0) {
+            // idle connections are only retired while the pool is above its minimum
+            config.setMinimumIdle(Math.min(2, config.getMaximumPoolSize()));
+        }
+        if (idleTimeout > 0) {
+            config.setIdleTimeout(idleTimeout);
+        }
+
+        long maxWaitTime = credentials.getMaxWaitTime(0);
+        if (maxWaitTime > 0) {
+            config.setConnectionTimeout(maxWaitTime);
+        }
+
+        int statementCacheSize = credentials.getStatementCacheSize(250);
+        config.addDataSourceProperty("cachePrepStmts", String.valueOf(statementCacheSize > 0));
+        if (statementCacheSize > 0) {
+            config.addDataSourceProperty("prepStmtCacheSize", String.valueOf(statementCacheSize));
+            config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        }
+
+        if (!credentials.getCompressors(List.of()).isEmpty()) {
+            // both drivers only implement zlib on the wire
+            config.addDataSourceProperty("useCompression", "true");
+        }
+
+        int fetchSize = credentials.getFetchSize(0);
+        if (fetchSize > 0) {
+            config.addDataSourceProperty("defaultFetchSize", String.valueOf(fetchSize));
+            config.addDataSourceProperty("useCursorFetch", "true");
+        }
+        return config;
+    }
+
+    /**
+     * @return the pool for the url and user of the config, a new pool is created if there is none yet.
+     */
+    public static synchronized HikariDataSource acquire(final HikariConfig config) {
+        String key = config.getJdbcUrl() + "|" + config.getDataSourceProperties().getProperty("user");
+        Shared shared = pools.get(key);
+        Settings settings = Settings.of(config);
+        if (shared == null || shared.dataSource.isClosed()) {
+            // the settings are taken before the pool validates and changes the config
+            shared = new Shared(settings, new HikariDataSource(config));
+            pools.put(key, shared);
+        } else {
+            List<String> differences = shared.settings.differences(settings);
+            if (!differences.isEmpty()) {
+                log.warning("Reusing the pool for " + config.getJdbcUrl() + ", ignoring the differing settings: " + String.join(", ", differences));
+            }
+        }
+
+        shared.references++;
+        return shared.dataSource;
+    }
+
+    /**
+     * Releases a pool acquired with {@link #acquire(HikariConfig)}, closing it if no storage uses it anymore.
+     */
+    public static synchronized void release(final HikariDataSource dataSource) {
+        Iterator<Shared> iterator = pools.values().iterator();
+        while (iterator.hasNext()) {
+            Shared shared = iterator.next();
+            if (shared.dataSource != dataSource) {
+                continue;
+            }
+
+            if (--shared.references <= 0) {
+                iterator.remove();
+                dataSource.close();
+            }
+            return;
+        }
+
+        // not shared, e.g. created before the storage used this provider
+        dataSource.close();
+    }
+
+    private static class Shared {
+        private final Settings settings;
+        private final HikariDataSource dataSource;
+        private int references;
+
+        private Shared(final Settings settings, final HikariDataSource dataSource) {
+            this.settings = settings;
+            this.dataSource = dataSource;
+        }
+    }
+
+    /**
+     * The options of a config that change the behaviour of the pool, the url and user are part of the pool key.
+     */
+    private record Settings(int maximumPoolSize, int minimumIdle, long idleTimeout, long connectionTimeout,
+                            long leakDetectionThreshold, boolean autoCommit, Map<String, String> properties) {
+
+        private static Settings of(final HikariConfig config) {
+            Map<String, String> properties = new TreeMap<>();
+            config.getDataSourceProperties().forEach((name, value) -> properties.put(String.valueOf(name), String.valueOf(value)));
+            // an unset minimum means a fixed size pool
+            int minimumIdle = config.getMinimumIdle() < 0 ? config.getMaximumPoolSize() : config.getMinimumIdle();
+            return new Settings(config.getMaximumPoolSize(), minimumIdle, config.getIdleTimeout(), config.getConnectionTimeout(),
+                    config.getLeakDetectionThreshold(), config.isAutoCommit(), properties);
+        }
+
+        /**
+         * @return a description of every setting of the other config that differs from these.
+         */
+        private List<String> differences(final Settings other) {
+            List<String> differences = new ArrayList<>();
+            compare(differences, "maximumPoolSize", maximumPoolSize, other.maximumPoolSize);
+            compare(differences, "minimumIdle", minimumIdle, other.minimumIdle);
+            compare(differences, "idleTimeout", idleTimeout, other.idleTimeout);
+            compare(differences, "connectionTimeout", connectionTimeout, other.connectionTimeout);
+            compare(differences, "leakDetectionThreshold", leakDetectionThreshold, other.leakDetectionThreshold);
+            compare(differences, "autoCommit", autoCommit, other.autoCommit);
+
+            Set<String> names = new TreeSet<>(properties.keySet());
+            names.addAll(other.properties.keySet());
+            for (String name : names) {
+                if (name.equals("password")) {
+                    if (!Objects.equals(properties.get(name), other.properties.get(name))) {
+                        differences.add("password");
+                    }
+                    continue;
+                }
+                compare(differences, name, properties.get(name), other.properties.get(name));
+            }
+            return differences;
+        }
+
+        private static void compare(final List<String> differences, final String name, final Object used, final Object requested) {
+            if (!Objects.equals(used, requested)) {
+                differences.add(name + " " + requested + " (pool uses " + used + ")");
+            }
+        }
+    }
+}
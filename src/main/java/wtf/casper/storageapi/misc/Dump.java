@@ -0,0 +1,268 @@
+package wtf.casper.storageapi.misc;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import wtf.casper.storageapi.Chunk;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the values of a storage to a file and reads them back, one chunk at a time so memory stays constant.
+ * The format of a file is detected from its first bytes when it is imported:
+ * <ul>
+ *     <li>gzip or zstd compressed newline delimited json, one value per line.</li>
+ *     <li>binary, the magic "SAPB" followed by the json of every value prefixed with its length as an int.</li>
+ *     <li>anything else is read as uncompressed newline delimited json.</li>
+ * </ul>
+ */
+public final class Dump {
+    private static final byte[] BINARY_MAGIC = {'S', 'A', 'P', 'B'};
+    private static final byte[] GZIP_MAGIC = {0x1F, (byte) 0x8B};
+    private static final byte[] ZSTD_MAGIC = {0x28, (byte) 0xB5, 0x2F, (byte) 0xFD};
+
+    public enum Format {
+        NDJSON_GZIP,
+        /**
+         * Needs zstd-jni on the classpath.
+         */
+        NDJSON_ZSTD,
+        /**
+         * Uncompressed, the fastest to write and read.
+         */
+        BINARY
+    }
+
+    private Dump() {
+    }
+
+    /**
+     * @return the value class of a storage that knows it, used to import into storages without passing the class.
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> Class<V> valueClass(final Object storage) {
+        if (storage instanceof KeyValue<?, ?> keyValue) {
+            return (Class<V>) keyValue.value();
+        }
+        throw new IllegalStateException(storage.getClass().getSimpleName() + " doesn't know its value class, pass it to importFrom");
+    }
+
+    /**
+     * The next chunk is read while the current one is written.
+     *
+     * @return a future that will complete with the amount of exported values.
+     */
+    public static <V> CompletableFuture<Long> export(final Migration.Source<V> source, final Path path, final Format format, final int chunkSize) {
+        return CompletableFuture.supplyAsync(() -> {
+            long exported = 0;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                if (format == Format.BINARY) {
+                    channel.write(ByteBuffer.wrap(BINARY_MAGIC));
+                }
+                OutputStream out = format == Format.BINARY ? null : compress(Channels.newOutputStream(channel), format);
+
+                CompletableFuture<Chunk<V>> next = source.read(null, chunkSize);
+                while (true) {
+                    Chunk<V> chunk = next.join();
+                    if (chunk.cursor() != null) {
+                        next = source.read(chunk.cursor(), chunkSize);
+                    }
+
+                    if (out != null) {
+                        writeLines(out, chunk.values());
+                    } else {
+                        writeRecords(channel, chunk.values());
+                    }
+                    exported += chunk.values().size();
+
+                    if (chunk.cursor() == null) {
+                        break;
+                    }
+                }
+
+                if (out != null) {
+                    // closes the channel as well
+                    out.close();
+                }
+            } catch (IOException e) {
+                throw new CompletionException("Export failed after " + exported + " values", e);
+            }
+            return exported;
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    /**
+     * Reads the file in batches of {@code chunkSize} values, which are parsed and saved by up to {@code writers} parallel writes.
+     *
+     * @return a future that will complete with the amount of imported values.
+     */
+    public static <V> CompletableFuture<Long> importFrom(final Path path, final Class<V> type, final Function<Collection<V>, CompletableFuture<Void>> target,
+                                                         final int chunkSize, final int writers) {
+        return CompletableFuture.supplyAsync(() -> {
+            Semaphore permits = new Semaphore(writers);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            AtomicLong imported = new AtomicLong();
+
+            try (InputStream in = open(path)) {
+                RecordReader reader = reader(in);
+                List<String> batch = new ArrayList<>(chunkSize);
+                String json;
+                while (failure.get() == null && (json = reader.next()) != null) {
+                    batch.add(json);
+                    if (batch.size() >= chunkSize) {
+                        submit(batch, type, target, permits, failure, imported);
+                        batch = new ArrayList<>(chunkSize);
+                    }
+                }
+                if (!batch.isEmpty() && failure.get() == null) {
+                    submit(batch, type, target, permits, failure, imported);
+                }
+
+                permits.acquire(writers);
+            } catch (IOException e) {
+                throw new CompletionException("Import failed after " + imported.get() + " values", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+
+            if (failure.get() != null) {
+                throw new CompletionException("Import failed after " + imported.get() + " values", failure.get());
+            }
+            return imported.get();
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    private static <V> void submit(final List<String> batch, final Class<V> type, final Function<Collection<V>, CompletableFuture<Void>> target,
+                                   final Semaphore permits, final AtomicReference<Throwable> failure, final AtomicLong imported) throws InterruptedException {
+        permits.acquire();
+        CompletableFuture.supplyAsync(() -> {
+            List<V> values = new ArrayList<>(batch.size());
+            for (String json : batch) {
+                values.add(StorageAPIConstants.getGson().fromJson(json, type));
+            }
+            return values;
+        }, StorageAPIConstants.DB_THREAD_POOL).thenCompose(target).whenComplete((v, throwable) -> {
+            try {
+                if (throwable != null) {
+                    failure.compareAndSet(null, throwable);
+                } else {
+                    imported.addAndGet(batch.size());
+                }
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    private static <V> void writeLines(final OutputStream out, final List<V> values) throws IOException {
+        for (V value : values) {
+            out.write(StorageAPIConstants.getGson().toJson(value).getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+    }
+
+    private static <V> void writeRecords(final FileChannel channel, final List<V> values) throws IOException {
+        List<byte[]> records = new ArrayList<>(values.size());
+        int size = 0;
+        for (V value : values) {
+            byte[] json = StorageAPIConstants.getGson().toJson(value).getBytes(StandardCharsets.UTF_8);
+            records.add(json);
+            size += 4 + json.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] record : records) {
+            buffer.putInt(record.length).put(record);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static OutputStream compress(final OutputStream out, final Format format) throws IOException {
+        BufferedOutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+        return format == Format.NDJSON_ZSTD ? Zstd.output(buffered) : new GZIPOutputStream(buffered, 1 << 16);
+    }
+
+    private static InputStream open(final Path path) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ)), 1 << 16);
+        in.mark(BINARY_MAGIC.length);
+        byte[] header = in.readNBytes(BINARY_MAGIC.length);
+        in.reset();
+
+        if (startsWith(header, GZIP_MAGIC)) {
+            return new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16);
+        }
+        if (startsWith(header, ZSTD_MAGIC)) {
+            return new BufferedInputStream(Zstd.input(in), 1 << 16);
+        }
+        return in;
+    }
+
+    private static RecordReader reader(final InputStream in) throws IOException {
+        in.mark(BINARY_MAGIC.length);
+        if (Arrays.equals(in.readNBytes(BINARY_MAGIC.length), BINARY_MAGIC)) {
+            DataInputStream data = new DataInputStream(in);
+            return () -> {
+                byte[] length = data.readNBytes(4);
+                if (length.length < 4) {
+                    return null;
+                }
+                return new String(data.readNBytes(ByteBuffer.wrap(length).getInt()), StandardCharsets.UTF_8);
+            };
+        }
+
+        in.reset();
+        BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        return () -> {
+            String line;
+            do {
+                line = lines.readLine();
+            } while (line != null && line.isBlank());
+            return line;
+        };
+    }
+
+    private static boolean startsWith(final byte[] bytes, final byte[] prefix) {
+        return bytes.length >= prefix.length && Arrays.equals(Arrays.copyOf(bytes, prefix.length), prefix);
+    }
+
+    @FunctionalInterface
+    private interface RecordReader {
+        /**
+         * @return the json of the next value or null at the end of the file.
+         */
+        String next() throws IOException;
+    }
+
+    // only loaded when zstd is used, zstd-jni is optional
+    private static final class Zstd {
+        private static OutputStream output(final OutputStream out) throws IOException {
+            return new ZstdOutputStream(out);
+        }
+
+        private static InputStream input(final InputStream in) throws IOException {
+            return new ZstdInputStream(in);
+        }
+    }
+}
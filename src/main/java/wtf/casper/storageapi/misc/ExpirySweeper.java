@@ -0,0 +1,83 @@
+package wtf.casper.storageapi.misc;
+
+import lombok.extern.java.Log;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Deletes expired rows of a sql storage in the background.
+ * Every run deletes at most {@code maxBatches} batches of {@code batchSize} rows, so a large
+ * amount of expired rows is removed over several runs instead of in one long locking delete.
+ */
+@Log
+public class ExpirySweeper {
+
+    private final SQLStorage<?, ?> storage;
+    private final Duration interval;
+    private final int batchSize;
+    private final int maxBatches;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile ScheduledFuture<?> task;
+
+    public ExpirySweeper(final SQLStorage<?, ?> storage) {
+        this(storage, Duration.ofSeconds(30), 500, 20);
+    }
+
+    public ExpirySweeper(final SQLStorage<?, ?> storage, final Duration interval, final int batchSize, final int maxBatches) {
+        this.storage = storage;
+        this.interval = interval;
+        this.batchSize = batchSize;
+        this.maxBatches = maxBatches;
+    }
+
+    /**
+     * Starts sweeping if it isn't running yet.
+     */
+    public void start() {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+
+        task = StorageAPIConstants.SCHEDULER.scheduleWithFixedDelay(() -> {
+            if (!running.compareAndSet(false, true)) {
+                return;
+            }
+            CompletableFuture.runAsync(this::sweep, StorageAPIConstants.DB_THREAD_POOL)
+                    .whenComplete((v, throwable) -> running.set(false));
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        ScheduledFuture<?> task = this.task;
+        if (task != null) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * @return the amount of deleted rows.
+     */
+    public int sweep() {
+        int total = 0;
+        for (int i = 0; i < maxBatches; i++) {
+            int deleted = storage.executeUpdate("DELETE FROM " + storage.table() + " WHERE expires_at <= " + SQLStorage.NOW_MILLIS + " LIMIT ?;", statement -> {
+                statement.setInt(1, batchSize);
+            });
+            if (deleted <= 0) {
+                break;
+            }
+
+            total += deleted;
+            if (deleted < batchSize) {
+                break;
+            }
+        }
+        return total;
+    }
+}
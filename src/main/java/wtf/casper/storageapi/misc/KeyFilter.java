@@ -0,0 +1,91 @@
+package wtf.casper.storageapi.misc;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import lombok.extern.java.Log;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.Chunk;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+
+/**
+ * A bloom filter over the keys of a storage that answers "definitely missing" without a database round trip.
+ * It is filled from an id scan when it is built and with every key saved through the storage afterwards.
+ * Removed keys can't be taken out of a bloom filter, they are reported as possibly present until the next
+ * {@link #build}. Only use it if the storage is the only writer, keys inserted by other processes are not seen.
+ */
+@Log
+public class KeyFilter {
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+    private static final int SCAN_CHUNK_SIZE = 10_000;
+
+    private final long expectedKeys;
+    private volatile BloomFilter<CharSequence> filter;
+    private volatile boolean ready;
+
+    public KeyFilter(final long expectedKeys) {
+        this.expectedKeys = expectedKeys;
+        this.filter = create();
+    }
+
+    /**
+     * Replaces the filter with one built from all keys, until the scan finished every key might be present.
+     * If the scan fails the filter stays that way, a partial filter would report keys that exist as missing.
+     *
+     * @param keys reads the keys of the storage in chunks.
+     * @return a future that will complete with the amount of scanned keys.
+     */
+    public CompletableFuture<Long> build(final SchemaTransform.KeyScan keys) {
+        return CompletableFuture.supplyAsync(() -> {
+            // keys are put after they were written, so a key saved while scanning is either seen by the scan or put into the new filter
+            BloomFilter<CharSequence> next = create();
+            ready = false;
+            filter = next;
+
+            long count = 0;
+            String cursor = null;
+            do {
+                Chunk<String> chunk = keys.read(cursor, SCAN_CHUNK_SIZE).join();
+                for (String key : chunk.values()) {
+                    next.put(key);
+                }
+                count += chunk.values().size();
+                cursor = chunk.cursor();
+            } while (cursor != null);
+
+            if (count > expectedKeys) {
+                log.warning("Bloom filter was built for " + expectedKeys + " keys but the storage has " + count + ", false positives will be more common");
+            }
+            ready = true;
+            return count;
+        }, StorageAPIConstants.DB_THREAD_POOL).whenComplete((count, throwable) -> {
+            if (throwable != null) {
+                log.log(Level.WARNING, "Failed to build the bloom filter, every key counts as possibly present", throwable);
+            }
+        });
+    }
+
+    public void put(@Nullable final Object key) {
+        if (key != null) {
+            filter.put(key.toString());
+        }
+    }
+
+    /**
+     * @return false if the key is definitely not in the storage, true if it might be.
+     */
+    public boolean mightContain(@Nullable final Object key) {
+        if (!ready || key == null) {
+            return true;
+        }
+        return filter.mightContain(key.toString());
+    }
+
+    private BloomFilter<CharSequence> create() {
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedKeys, FALSE_POSITIVE_RATE);
+    }
+}
@@ -0,0 +1,241 @@
+package wtf.casper.storageapi.misc;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.Chunk;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Copies values from one storage to another in chunks without holding the whole source in memory.
+ * Chunks are read in order and written by up to {@code writers} parallel batched writes.
+ * If a checkpoint file is set, the position after the last fully written chunk is stored in it,
+ * so a migration that crashed continues where it stopped when it is run again.
+ * <pre>{@code
+ * target.migration(source)
+ *         .chunkSize(5000)
+ *         .writers(8)
+ *         .checkpoint(Path.of("migration.checkpoint"))
+ *         .progress(progress -> log.info(progress.toString()))
+ *         .build()
+ *         .run();
+ * }</pre>
+ */
+@Log
+@Builder
+public class Migration<V> {
+
+    @NonNull
+    private final Source<V> source;
+    @NonNull
+    private final Function<Collection<V>, CompletableFuture<Void>> target;
+    @Builder.Default
+    private final int chunkSize = 1000;
+    @Builder.Default
+    private final int writers = 4;
+    /**
+     * The file the position of the migration is stored in, nothing is stored if null.
+     * The file is deleted once the migration completed.
+     */
+    @Nullable
+    private final Path checkpoint;
+    @Nullable
+    private final Consumer<Progress> progress;
+    /**
+     * The total amount of values in the source if known, used to calculate the eta.
+     */
+    @Builder.Default
+    private final long total = -1;
+    /**
+     * Estimates the amount of values in the source when no total is set, a negative count means unknown.
+     * It runs alongside the migration, the eta is empty until it completed.
+     */
+    @Nullable
+    private final Supplier<CompletableFuture<Long>> counter;
+
+    /**
+     * @return a future that will complete with the total amount of migrated values.
+     */
+    public CompletableFuture<Long> run() {
+        return CompletableFuture.supplyAsync(() -> {
+            String[] state = readCheckpoint();
+            String cursor = state[0];
+            long resumedCount = Long.parseLong(state[1]);
+            if (cursor != null) {
+                log.info("Resuming migration after " + resumedCount + " values");
+            }
+
+            Semaphore permits = new Semaphore(writers);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Tracker tracker = new Tracker(resumedCount, System.nanoTime(), total());
+
+            long sequence = 0;
+            try {
+                while (failure.get() == null) {
+                    Chunk<V> chunk = source.read(cursor, chunkSize).join();
+                    if (chunk.values().isEmpty()) {
+                        break;
+                    }
+
+                    permits.acquire();
+                    long chunkSequence = sequence++;
+                    String chunkCursor = chunk.cursor();
+                    int size = chunk.values().size();
+                    target.apply(chunk.values()).whenComplete((v, throwable) -> {
+                        try {
+                            if (throwable != null) {
+                                failure.compareAndSet(null, throwable);
+                            } else {
+                                tracker.complete(chunkSequence, chunkCursor, size);
+                            }
+                        } finally {
+                            permits.release();
+                        }
+                    });
+
+                    if (chunkCursor == null) {
+                        break;
+                    }
+                    cursor = chunkCursor;
+                }
+
+                permits.acquire(writers);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+
+            if (failure.get() != null) {
+                throw new CompletionException("Migration failed after " + tracker.migrated + " values", failure.get());
+            }
+
+            deleteCheckpoint();
+            return tracker.migrated;
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    private CompletableFuture<Long> total() {
+        if (total >= 0 || counter == null || progress == null) {
+            return CompletableFuture.completedFuture(total);
+        }
+        return counter.get().exceptionally(throwable -> -1L);
+    }
+
+    private String[] readCheckpoint() {
+        if (checkpoint == null || !Files.exists(checkpoint)) {
+            return new String[]{null, "0"};
+        }
+
+        try {
+            List<String> lines = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+            return new String[]{lines.get(0), lines.get(1)};
+        } catch (IOException | IndexOutOfBoundsException e) {
+            throw new IllegalStateException("Could not read migration checkpoint " + checkpoint, e);
+        }
+    }
+
+    private void writeCheckpoint(final String cursor, final long migrated) {
+        if (checkpoint == null) {
+            return;
+        }
+
+        try {
+            Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+            Files.writeString(temp, cursor + "\n" + migrated, StandardCharsets.UTF_8);
+            Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warning("Could not write migration checkpoint " + checkpoint);
+            e.printStackTrace();
+        }
+    }
+
+    private void deleteCheckpoint() {
+        if (checkpoint == null) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(checkpoint);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads an ordered chunk of values after the given cursor.
+     */
+    @FunctionalInterface
+    public interface Source<V> {
+        CompletableFuture<Chunk<V>> read(@Nullable String cursor, int limit);
+    }
+
+    /**
+     * @param migrated the amount of values migrated so far, including values of a resumed run.
+     * @param total the total amount of values or -1 if unknown.
+     * @param rowsPerSecond the write rate of this run.
+     * @param eta the estimated remaining time or null if the total is unknown.
+     */
+    public record Progress(long migrated, long total, double rowsPerSecond, @Nullable Duration eta) {
+    }
+
+    // chunks can complete out of order, the checkpoint may only move past chunks that are all written
+    private final class Tracker {
+        private final TreeMap<Long, Map.Entry<String, Integer>> completed = new TreeMap<>();
+        private final long resumed;
+        private final long started;
+        private final CompletableFuture<Long> total;
+        private long nextSequence = 0;
+        private long committed;
+        private volatile long migrated;
+
+        private Tracker(final long resumed, final long started, final CompletableFuture<Long> total) {
+            this.resumed = resumed;
+            this.started = started;
+            this.total = total;
+            this.committed = resumed;
+            this.migrated = resumed;
+        }
+
+        private synchronized void complete(final long sequence, @Nullable final String cursor, final int size) {
+            migrated += size;
+            completed.put(sequence, Map.entry(cursor == null ? "" : cursor, size));
+
+            String committedCursor = null;
+            while (completed.containsKey(nextSequence)) {
+                Map.Entry<String, Integer> entry = completed.remove(nextSequence++);
+                committedCursor = entry.getKey();
+                committed += entry.getValue();
+            }
+            if (committedCursor != null && !committedCursor.isEmpty()) {
+                writeCheckpoint(committedCursor, committed);
+            }
+
+            if (progress != null) {
+                double seconds = Math.max(0.001, (System.nanoTime() - started) / 1_000_000_000D);
+                double rate = (migrated - resumed) / seconds;
+                long total = this.total.getNow(-1L);
+                Duration eta = total < 0 || rate <= 0 ? null : Duration.ofSeconds((long) (Math.max(0, total - migrated) / rate));
+                progress.accept(new Progress(migrated, total, rate, eta));
+            }
+        }
+    }
+}
@@ -2,47 +2,202 @@ package wtf.casper.storageapi.misc;
 
 import com.mongodb.ConnectionString;
 import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
 import com.mongodb.MongoDriverInformation;
-import com.mongodb.client.ClientSession;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
 import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.internal.MongoClientImpl;
+import lombok.extern.java.Log;
+import org.bson.Document;
 import org.bson.UuidRepresentation;
 import org.bson.codecs.configuration.CodecRegistries;
 import org.bson.codecs.pojo.PojoCodecProvider;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.Credentials;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Holds one client per connection uri, clients are created on first use and shared by all storages.
+ * The driver reconnects on its own, so lookups don't probe the connection. Instead every client is pinged in the
+ * background and failures are logged, see {@link #isHealthy(String)}.
+ */
+@Log
 public class MongoProvider {
-    private static final Map<String, MongoClient> clients = new HashMap<>();
-    private static String defaultConnection;
+    private static final long HEALTH_CHECK_SECONDS = 30;
+
+    private static final Map<String, MongoClient> clients = new ConcurrentHashMap<>();
+    private static final Map<String, PoolSettings> poolSettings = new ConcurrentHashMap<>();
+    private static final Set<String> unhealthy = ConcurrentHashMap.newKeySet();
+    private static volatile String defaultConnection;
+    private static ScheduledFuture<?> healthCheck;
 
     public static MongoClient getClient(String uri) {
-        if (clients.containsKey(uri)) {
-            MongoClient client = clients.get(uri);
-            try {
-                // Test connection
-                ClientSession session = client.startSession();
-                session.close();
-                return client;
-            } catch (Exception e) {
-                client.close();
-                clients.remove(uri);
-            }
+        return getClient(uri, null);
+    }
+
+    /**
+     * @param credentials the pool settings for the client, only used if there is no client for the uri yet.
+     *                    Differing settings of later callers are ignored with a warning.
+     */
+    public static MongoClient getClient(String uri, @Nullable Credentials credentials) {
+        PoolSettings requested = PoolSettings.of(credentials);
+        MongoClient client = clients.computeIfAbsent(uri, key -> {
+            poolSettings.put(key, requested);
+            return createClient(key, credentials);
+        });
+
+        PoolSettings used = poolSettings.get(uri);
+        if (credentials != null && used != null && !used.equals(requested)) {
+            log.warning("Reusing the client for " + describe(uri) + " with the pool settings " + used + ", ignoring " + requested);
         }
+        startHealthCheck();
+        return client;
+    }
+
+    /**
+     * @return the hosts and database of the uri for log messages, the uri itself may contain a password.
+     */
+    private static String describe(String uri) {
+        ConnectionString connection = new ConnectionString(uri);
+        return String.join(",", connection.getHosts()) + (connection.getDatabase() == null ? "" : "/" + connection.getDatabase());
+    }
 
-        MongoClient client = new MongoClientImpl(MongoClientSettings.builder()
+    private static MongoClient createClient(String uri, @Nullable Credentials credentials) {
+        MongoClientSettings.Builder settings = MongoClientSettings.builder()
                 .applyConnectionString(new ConnectionString(uri))
                 .uuidRepresentation(UuidRepresentation.JAVA_LEGACY)
                 .codecRegistry(CodecRegistries.fromRegistries(
                         MongoClientSettings.getDefaultCodecRegistry(),
                         CodecRegistries.fromProviders(PojoCodecProvider.builder().automatic(true).build())
-                ))
-                .build(), MongoDriverInformation.builder().build()
-        );
+                ));
 
-        clients.put(uri, client);
-        return client;
+        if (credentials != null) {
+            settings.applyToConnectionPoolSettings(pool -> {
+                if (credentials.getMinPoolSize() != null) {
+                    pool.minSize(credentials.getMinPoolSize());
+                }
+                if (credentials.getMaxPoolSize() != null) {
+                    pool.maxSize(credentials.getMaxPoolSize());
+                }
+                if (credentials.getIdleTimeout() != null) {
+                    pool.maxConnectionIdleTime(credentials.getIdleTimeout(), TimeUnit.MILLISECONDS);
+                }
+                if (credentials.getMaxWaitTime() != null) {
+                    pool.maxWaitTime(credentials.getMaxWaitTime(), TimeUnit.MILLISECONDS);
+                }
+            });
+
+            List<MongoCompressor> compressors = compressors(credentials.getCompressors(List.of()));
+            if (!compressors.isEmpty()) {
+                settings.compressorList(compressors);
+            }
+        }
+
+        return new MongoClientImpl(settings.build(), MongoDriverInformation.builder().build());
+    }
+
+    /**
+     * @param names the compressor names of {@link Credentials#getCompressors(List)}, case-insensitive.
+     * @return the compressors in the same order, zstd and snappy are skipped with a warning if their optional jar is missing.
+     * @throws IllegalArgumentException if a name is not "zstd", "snappy" or "zlib".
+     */
+    public static List<MongoCompressor> compressors(List<String> names) {
+        List<MongoCompressor> compressors = new ArrayList<>();
+        for (String name : names) {
+            switch (name.toLowerCase()) {
+                case "zstd" -> {
+                    if (isPresent("com.github.luben.zstd.Zstd")) {
+                        compressors.add(MongoCompressor.createZstdCompressor());
+                    }
+                }
+                case "snappy" -> {
+                    if (isPresent("org.xerial.snappy.Snappy")) {
+                        compressors.add(MongoCompressor.createSnappyCompressor());
+                    }
+                }
+                case "zlib" -> compressors.add(MongoCompressor.createZlibCompressor());
+                default -> throw new IllegalArgumentException("Unknown compressor " + name);
+            }
+        }
+        return compressors;
+    }
+
+    private static boolean isPresent(String className) {
+        try {
+            Class.forName(className, false, MongoProvider.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            log.warning("Skipping compressor, " + className + " is not on the classpath");
+            return false;
+        }
+    }
+
+    /**
+     * Applies the read preference and write concern of the credentials to a collection.
+     * They are applied per collection because storages with different settings can share a client.
+     */
+    public static MongoCollection<Document> configure(MongoCollection<Document> collection, Credentials credentials) {
+        if (credentials.getReadPreference() != null) {
+            collection = collection.withReadPreference(ReadPreference.valueOf(credentials.getReadPreference()));
+        }
+        if (credentials.getWriteConcern() != null) {
+            WriteConcern writeConcern = WriteConcern.valueOf(credentials.getWriteConcern());
+            if (writeConcern == null) {
+                throw new IllegalArgumentException("Unknown write concern " + credentials.getWriteConcern());
+            }
+            collection = collection.withWriteConcern(writeConcern);
+        }
+        return collection;
+    }
+
+    /**
+     * @return whether reads of the collection are served by the primary, values read from secondaries may be stale.
+     */
+    public static boolean readsPrimary(MongoCollection<Document> collection) {
+        return collection.getReadPreference().equals(ReadPreference.primary());
+    }
+
+    /**
+     * @return false if the last background ping of the client for the uri failed.
+     */
+    public static boolean isHealthy(String uri) {
+        return clients.containsKey(uri) && !unhealthy.contains(uri);
+    }
+
+    private static synchronized void startHealthCheck() {
+        if (healthCheck != null) {
+            return;
+        }
+
+        healthCheck = StorageAPIConstants.SCHEDULER.scheduleWithFixedDelay(() -> {
+            for (Map.Entry<String, MongoClient> entry : clients.entrySet()) {
+                CompletableFuture.runAsync(() -> ping(entry.getKey(), entry.getValue()), StorageAPIConstants.DB_THREAD_POOL);
+            }
+        }, HEALTH_CHECK_SECONDS, HEALTH_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static void ping(String uri, MongoClient client) {
+        try {
+            client.getDatabase("admin").runCommand(new Document("ping", 1));
+            if (unhealthy.remove(uri)) {
+                log.info("Mongo connection recovered");
+            }
+        } catch (Exception e) {
+            if (clients.get(uri) == client && unhealthy.add(uri)) {
+                log.warning("Mongo connection is unhealthy: " + e.getMessage());
+            }
+        }
     }
 
     public static void setDefaultConnection(String uri) {
@@ -60,9 +215,11 @@ public class MongoProvider {
     }
 
     public static void closeClient(String uri) {
-        if (clients.containsKey(uri)) {
-            clients.get(uri).close();
-            clients.remove(uri);
+        MongoClient client = clients.remove(uri);
+        poolSettings.remove(uri);
+        unhealthy.remove(uri);
+        if (client != null) {
+            client.close();
         }
     }
 
@@ -76,4 +233,19 @@ public class MongoProvider {
         closeClient(defaultConnection);
         defaultConnection = null;
     }
+
+    /**
+     * The options of the credentials the client was created with, null if they were not set.
+     */
+    private record PoolSettings(@Nullable Integer minPoolSize, @Nullable Integer maxPoolSize, @Nullable Long idleTimeout,
+                                @Nullable Long maxWaitTime, @Nullable List<String> compressors) {
+
+        private static PoolSettings of(@Nullable Credentials credentials) {
+            if (credentials == null) {
+                return new PoolSettings(null, null, null, null, null);
+            }
+            return new PoolSettings(credentials.getMinPoolSize(), credentials.getMaxPoolSize(), credentials.getIdleTimeout(),
+                    credentials.getMaxWaitTime(), credentials.getCompressors());
+        }
+    }
 }
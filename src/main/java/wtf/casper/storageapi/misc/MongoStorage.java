@@ -1,5 +1,8 @@
 package wtf.casper.storageapi.misc;
 
+import com.google.gson.JsonPrimitive;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
 import java.util.*;
 
 public interface MongoStorage {
@@ -27,4 +30,15 @@ public interface MongoStorage {
         return object;
     }
 
+    /**
+     * Cursors are the string form of the last id, mongo never matches a string with a numeric id,
+     * so the cursor has to be converted back to the type of the id before it is compared.
+     *
+     * @param cursor the string form of an id.
+     * @param idClass the class of the id field.
+     * @return the id in the format it is stored in.
+     */
+    default Object cursorId(String cursor, Class<?> idClass) {
+        return convertUUIDtoString(StorageAPIConstants.getGson().fromJson(new JsonPrimitive(cursor), idClass));
+    }
 }
@@ -0,0 +1,81 @@
+package wtf.casper.storageapi.misc;
+
+import com.github.luben.zstd.Zstd;
+import net.jpountz.lz4.LZ4Factory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compresses the json of values before it is written to a binary column.
+ * Every payload starts with a header byte for its format, so rows written with different settings can be read alike:
+ * <ul>
+ *     <li>0: uncompressed json, used for values below the threshold.</li>
+ *     <li>1: lz4, followed by the uncompressed length as an int and the compressed block.</li>
+ *     <li>2: zstd, followed by a zstd frame.</li>
+ * </ul>
+ * Rows written before compression was enabled have no header and start with the '{' of the json.
+ */
+public final class PayloadCodec {
+    private static final byte RAW = 0;
+    private static final byte LZ4 = 1;
+    private static final byte ZSTD = 2;
+
+    private final byte format;
+    private final int threshold;
+
+    /**
+     * @param algorithm "lz4" or "zstd".
+     * @param threshold the size in bytes from which json is compressed, smaller values aren't worth the cpu.
+     */
+    public PayloadCodec(final String algorithm, final int threshold) {
+        this.format = switch (algorithm.toLowerCase()) {
+            case "lz4" -> LZ4;
+            case "zstd" -> ZSTD;
+            default -> throw new IllegalArgumentException("Unknown payload compression " + algorithm);
+        };
+        this.threshold = threshold;
+    }
+
+    public byte[] encode(final String json) {
+        byte[] raw = json.getBytes(StandardCharsets.UTF_8);
+        if (raw.length < threshold) {
+            return withHeader(RAW, raw);
+        }
+
+        if (format == LZ4) {
+            byte[] compressed = LZ4Factory.fastestInstance().fastCompressor().compress(raw);
+            return ByteBuffer.allocate(5 + compressed.length).put(LZ4).putInt(raw.length).put(compressed).array();
+        }
+        return withHeader(ZSTD, Zstd.compress(raw));
+    }
+
+    public static String decode(final byte[] payload) {
+        if (payload.length == 0 || payload[0] == '{') {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+
+        return switch (payload[0]) {
+            case RAW -> new String(payload, 1, payload.length - 1, StandardCharsets.UTF_8);
+            case LZ4 -> {
+                int length = ByteBuffer.wrap(payload, 1, 4).getInt();
+                byte[] raw = new byte[length];
+                LZ4Factory.fastestInstance().fastDecompressor().decompress(payload, 5, raw, 0, length);
+                yield new String(raw, StandardCharsets.UTF_8);
+            }
+            case ZSTD -> {
+                byte[] frame = Arrays.copyOfRange(payload, 1, payload.length);
+                yield new String(Zstd.decompress(frame, (int) Zstd.getFrameContentSize(frame)), StandardCharsets.UTF_8);
+            }
+            default -> throw new IllegalArgumentException("Unknown payload format " + payload[0]);
+        };
+    }
+
+    private static byte[] withHeader(final byte format, final byte[] data) {
+        byte[] payload = new byte[data.length + 1];
+        payload[0] = format;
+        System.arraycopy(data, 0, payload, 1, data.length);
+        return payload;
+    }
+}
@@ -1,43 +1,231 @@
 package wtf.casper.storageapi.misc;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.zaxxer.hikari.HikariDataSource;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.Chunk;
 import wtf.casper.storageapi.KeyedStorage;
 import wtf.casper.storageapi.id.utils.IdUtils;
 import wtf.casper.storageapi.utils.StorageAPIConstants;
 import wtf.casper.storageapi.utils.UnsafeConsumer;
 
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
 public interface SQLStorage<K, V> extends KeyedStorage<K, V>, ConstructableValue<K, V> {
 
+    /**
+     * The current time of the database in epoch milliseconds, expiry times are computed on the database
+     * so that clients with different clocks agree on them.
+     */
+    String NOW_MILLIS = "ROUND(UNIX_TIMESTAMP(CURRENT_TIMESTAMP(3)) * 1000)";
+    String NOT_EXPIRED = "(expires_at IS NULL OR expires_at > " + NOW_MILLIS + ")";
+    /**
+     * The indexed generated column holding the {@link wtf.casper.storageapi.id.UpdatedAt} field, so changes are found without reading every value.
+     */
+    String UPDATED_AT = "updated_at";
+    /**
+     * The amount of rows written per round trip by {@link #saveAll(Collection)}.
+     */
+    int BATCH_SIZE = 1000;
+
     HikariDataSource dataSource();
 
+    /**
+     * @return the data source reads are executed on, this is a pool over the read replicas if any are configured.
+     */
+    default HikariDataSource readDataSource() {
+        return dataSource();
+    }
+
+    /**
+     * @return whether reads without the primary flag are served by the primary, values read from replicas may be stale.
+     */
+    default boolean readsPrimary() {
+        return readDataSource() == dataSource();
+    }
+
     String table();
 
     Logger logger();
 
+    /**
+     * @return the tracker used to skip or patch unchanged saves, or null if change tracking is disabled.
+     */
+    @Nullable
+    default ChangeTracker changeTracker() {
+        return null;
+    }
+
+    /**
+     * @return the bloom filter used to answer contains checks for missing keys, or null if it is disabled.
+     */
+    @Nullable
+    default KeyFilter keyFilter() {
+        return null;
+    }
+
+    /**
+     * @return the sweeper that deletes expired rows, or null if expired rows are only filtered.
+     */
+    @Nullable
+    default ExpirySweeper expirySweeper() {
+        return null;
+    }
+
+    /**
+     * @return whether uuid ids are stored as BINARY(16) instead of their 36 character string form.
+     * Existing tables with string ids have to be converted with {@link #convertKeys()} before they are used.
+     */
+    default boolean binaryKeys() {
+        return false;
+    }
+
+    /**
+     * @return the codec stored values are compressed with, or null if they are stored as plain json.
+     * The json functions of the database can't see into compressed values, so patches, version checks, change filters
+     * and schema transforms run client side instead.
+     */
+    @Nullable
+    default PayloadCodec payloadCodec() {
+        return null;
+    }
+
+    /**
+     * @param hosts the hosts, optionally with a port.
+     * @param defaultPort the port used for hosts without one.
+     * @return the hosts as a comma separated host:port list for a multi-host jdbc url.
+     */
+    static String hostList(final List<String> hosts, final int defaultPort) {
+        StringJoiner joiner = new StringJoiner(",");
+        for (String host : hosts) {
+            joiner.add(host.contains(":") ? host : host + ":" + defaultPort);
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * Writes the values with one multi-row upsert per {@link #BATCH_SIZE} values, unchanged values are skipped
+     * like in {@link #save(Object)}. Changed values are written whole instead of patched.
+     */
     @Override
     default CompletableFuture<Void> saveAll(final Collection<V> values) {
-        // TODO: generate a bulk insert https://stackoverflow.com/questions/452859/inserting-multiple-rows-in-a-single-sql-query
-
         return CompletableFuture.runAsync(() -> {
-            for (final V value : values) {
-                this.save(value).join();
+            String idName = IdUtils.getIdName(value());
+            Duration ttl = IdUtils.getTimeToLive(value());
+            ChangeTracker tracker = changeTracker();
+
+            Map<Object, String> rows = new LinkedHashMap<>();
+            for (V value : values) {
+                Object id = IdUtils.getId(value(), value);
+                if (id == null) {
+                    logger().warning("Could not find id field for " + value().getSimpleName());
+                    continue;
+                }
+
+                String json = StorageAPIConstants.getGson().toJson(value);
+                ChangeTracker.Diff diff = tracker == null ? null : tracker.diff(id, json);
+                if (diff != null && diff.isEmpty() && ttl == null) {
+                    continue;
+                }
+                if (IdUtils.touch(value)) {
+                    json = StorageAPIConstants.getGson().toJson(value);
+                }
+                rows.put(id, json);
+            }
+            if (rows.isEmpty()) {
+                return;
+            }
+
+            if (ttl != null && expirySweeper() != null) {
+                expirySweeper().start();
             }
+            String expiry = ttl == null ? "NULL" : NOW_MILLIS + " + ?";
+            String statement = "INSERT INTO " + table() + " (" + idName + ", json, expires_at) VALUES (?, ?, " + expiry + ") ON DUPLICATE KEY UPDATE json = VALUES(json), expires_at = VALUES(expires_at);";
+
+            // the drivers send a batch of the same insert as multi-row inserts
+            try (Connection connection = dataSource().getConnection();
+                 PreparedStatement prepared = connection.prepareStatement(statement)) {
+                int batched = 0;
+                for (Map.Entry<Object, String> row : rows.entrySet()) {
+                    setKey(prepared, 1, row.getKey());
+                    setJson(prepared, 2, row.getValue());
+                    if (ttl != null) {
+                        prepared.setLong(3, ttl.toMillis());
+                    }
+                    prepared.addBatch();
+                    if (++batched % BATCH_SIZE == 0) {
+                        prepared.executeBatch();
+                    }
+                }
+                if (batched % BATCH_SIZE != 0) {
+                    prepared.executeBatch();
+                }
+            } catch (SQLException e) {
+                logger().warning("Error while saving " + rows.size() + " values to " + table());
+                throw new CompletionException(e);
+            }
+
+            rows.forEach((id, json) -> {
+                if (tracker != null) {
+                    tracker.track(id, json);
+                }
+                if (keyFilter() != null) {
+                    keyFilter().put(id);
+                }
+            });
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    /**
+     * @return a future that will complete with the amount of rows the database estimates the table to have.
+     */
+    @Override
+    default CompletableFuture<Long> estimatedSize() {
+        return CompletableFuture.supplyAsync(() -> {
+            AtomicLong rows = new AtomicLong(-1);
+            query("SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?;", statement -> {
+                statement.setString(1, table());
+            }, resultSet -> {
+                if (resultSet.next()) {
+                    rows.set(resultSet.getLong(1));
+                }
+                resultSet.close();
+            }).join();
+            return rows.get();
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
     default CompletableFuture<ResultSet> query(final String query, final UnsafeConsumer<PreparedStatement> statement, final UnsafeConsumer<ResultSet> result) {
+        return this.query(false, query, statement, result);
+    }
+
+    /**
+     * @param primary whether the query must run on the primary instead of the read replicas.
+     */
+    default CompletableFuture<ResultSet> query(final boolean primary, final String query, final UnsafeConsumer<PreparedStatement> statement, final UnsafeConsumer<ResultSet> result) {
         return CompletableFuture.supplyAsync(() -> {
-            try (final Connection connection = this.dataSource().getConnection()) {
+            try (final Connection connection = (primary ? this.dataSource() : this.readDataSource()).getConnection()) {
                 try (final PreparedStatement prepared = connection.prepareStatement(query)) {
                     statement.accept(prepared);
                     final ResultSet resultSet = prepared.executeQuery();
@@ -49,7 +237,7 @@ public interface SQLStorage<K, V> extends KeyedStorage<K, V>, ConstructableValue
                 }
             } catch (final SQLException e) {
                 if (e.getMessage().contains("[SQLITE_BUSY]")) {
-                    return this.query(query, statement, result).join();
+                    return this.query(primary, query, statement, result).join();
                 }
 
                 logger().warning("Error while executing query: " + query);
@@ -59,6 +247,26 @@ public interface SQLStorage<K, V> extends KeyedStorage<K, V>, ConstructableValue
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
+    /**
+     * Like {@link #query(boolean, String, UnsafeConsumer, UnsafeConsumer)}, but the future fails instead of the error being logged.
+     * Paging reads use it, an empty chunk would otherwise be taken for the end of the table.
+     *
+     * @param primary whether the query must run on the primary instead of the read replicas.
+     */
+    default CompletableFuture<Void> read(final boolean primary, final String query, final UnsafeConsumer<PreparedStatement> statement, final UnsafeConsumer<ResultSet> result) {
+        return CompletableFuture.runAsync(() -> {
+            try (final Connection connection = (primary ? this.dataSource() : this.readDataSource()).getConnection();
+                 final PreparedStatement prepared = connection.prepareStatement(query)) {
+                statement.acceptThrow(prepared);
+                try (final ResultSet resultSet = prepared.executeQuery()) {
+                    result.acceptThrow(resultSet);
+                }
+            } catch (final Exception e) {
+                throw new CompletionException(e);
+            }
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
     default CompletableFuture<ResultSet> query(final String query, final UnsafeConsumer<ResultSet> result) {
         return this.query(query, statement -> {
         }, result);
@@ -114,16 +322,19 @@ public interface SQLStorage<K, V> extends KeyedStorage<K, V>, ConstructableValue
         }
     }
 
-    default void executeUpdate(final String statement) {
-        this.executeUpdate(statement, ps -> {
+    default int executeUpdate(final String statement) {
+        return this.executeUpdate(statement, ps -> {
         });
     }
 
-    default void executeUpdate(final String statement, final UnsafeConsumer<PreparedStatement> consumer) {
+    /**
+     * @return the amount of rows affected by the statement or -1 if the statement failed.
+     */
+    default int executeUpdate(final String statement, final UnsafeConsumer<PreparedStatement> consumer) {
         try (final Connection connection = this.dataSource().getConnection()) {
             try (final PreparedStatement prepared = connection.prepareStatement(statement)) {
                 consumer.accept(prepared);
-                prepared.executeUpdate();
+                return prepared.executeUpdate();
             } catch (final SQLException e) {
                 logger().warning("Error while executing query: " + statement);
                 e.printStackTrace();
@@ -132,37 +343,384 @@ public interface SQLStorage<K, V> extends KeyedStorage<K, V>, ConstructableValue
             logger().warning("Error while executing query: " + statement);
             e.printStackTrace();
         }
+        return -1;
     }
 
     default void createTable() {
         String idName = IdUtils.getIdName(value());
         boolean isUUID = UUID.class.isAssignableFrom(IdUtils.getIdClass(value()));
-        String idType = isUUID ? "VARCHAR(36) NOT NULL" : "VARCHAR(255) NOT NULL";
+        String idType = isBinaryKey() ? "BINARY(16) NOT NULL" : isUUID ? "VARCHAR(36) NOT NULL" : "VARCHAR(255) NOT NULL";
         idType = idName + " " + idType + " PRIMARY KEY";
 
-        execute("CREATE TABLE IF NOT EXISTS " + table() + " (" + idType + ", json LONGTEXT NOT NULL);");
+        String jsonType = payloadCodec() == null ? "LONGTEXT" : "LONGBLOB";
+        execute("CREATE TABLE IF NOT EXISTS " + table() + " (" + idType + ", json " + jsonType + " NOT NULL, expires_at BIGINT NULL, INDEX (expires_at));");
+
+        Field updatedAtField = IdUtils.getUpdatedAtField(value());
+        AtomicBoolean hasUpdatedAt = new AtomicBoolean();
+        query(true, "SELECT 1 FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = '" + UPDATED_AT + "';", statement -> {
+            statement.setString(1, table());
+        }, resultSet -> {
+            hasUpdatedAt.set(resultSet.next());
+            resultSet.close();
+        }).join();
+        // the column can't be computed from compressed values, they are filtered client side
+        if (hasUpdatedAt.get() && (updatedAtField == null || payloadCodec() != null)) {
+            execute("ALTER TABLE " + table() + " DROP COLUMN " + UPDATED_AT + ";");
+        } else if (!hasUpdatedAt.get() && updatedAtField != null && payloadCodec() == null) {
+            execute("ALTER TABLE " + table() + " ADD COLUMN " + UPDATED_AT + " BIGINT AS (CAST(JSON_EXTRACT(json, '$." + updatedAtField.getName() + "') AS SIGNED)) VIRTUAL, ADD INDEX (" + UPDATED_AT + ");");
+        }
+
+        // compressed payloads aren't valid text, existing tables have to store bytes before anything is written
+        if (payloadCodec() != null) {
+            AtomicReference<String> type = new AtomicReference<>();
+            query(true, "SELECT DATA_TYPE FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = 'json';", statement -> {
+                statement.setString(1, table());
+            }, resultSet -> {
+                if (resultSet.next()) {
+                    type.set(resultSet.getString(1));
+                }
+                resultSet.close();
+            }).join();
+            if (type.get() != null && !type.get().equalsIgnoreCase("longblob")) {
+                execute("ALTER TABLE " + table() + " MODIFY json LONGBLOB NOT NULL;");
+            }
+        }
+
+        // tables created before values could expire don't have the column yet
+        AtomicBoolean hasExpiry = new AtomicBoolean();
+        query(true, "SELECT 1 FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = 'expires_at';", statement -> {
+            statement.setString(1, table());
+        }, resultSet -> {
+            hasExpiry.set(resultSet.next());
+            resultSet.close();
+        }).join();
+        if (!hasExpiry.get()) {
+            execute("ALTER TABLE " + table() + " ADD COLUMN expires_at BIGINT NULL, ADD INDEX (expires_at);");
+        }
+
+        if (IdUtils.getTimeToLive(value()) != null && expirySweeper() != null) {
+            expirySweeper().start();
+        }
+    }
+
+    /**
+     * Converts the string ids of an existing table to BINARY(16) in place, this is a no-op if they are binary already.
+     * It has to be called once before a table with string ids is used with binary keys, while nothing else writes to it.
+     * The conversion runs in steps that each leave a consistent table, so an interrupted conversion can simply be run again:
+     * the binary ids are added as a new column and filled in chunks, the primary key is moved to the new column,
+     * the old column is dropped and the new column takes its name.
+     *
+     * @return a future that will complete with the amount of converted rows.
+     */
+    default CompletableFuture<Long> convertKeys() {
+        return CompletableFuture.supplyAsync(() -> {
+            if (!isBinaryKey()) {
+                return 0L;
+            }
+
+            String idName = IdUtils.getIdName(value());
+            String temporaryName = idName + "_binary";
+            Map<String, String[]> columns = new HashMap<>();
+            query(true, "SELECT COLUMN_NAME, DATA_TYPE, COLUMN_KEY FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME IN (?, ?);", statement -> {
+                statement.setString(1, table());
+                statement.setString(2, idName);
+                statement.setString(3, temporaryName);
+            }, resultSet -> {
+                while (resultSet.next()) {
+                    columns.put(resultSet.getString(1).toLowerCase(), new String[]{resultSet.getString(2), resultSet.getString(3)});
+                }
+                resultSet.close();
+            }).join();
+
+            String[] id = columns.get(idName.toLowerCase());
+            String[] temporary = columns.get(temporaryName.toLowerCase());
+            if (temporary == null && (id == null || id[0].equalsIgnoreCase("binary"))) {
+                return 0L;
+            }
+
+            String column = "`" + idName + "`";
+            String temporaryColumn = "`" + temporaryName + "`";
+            long count = 0;
+            if (id != null) {
+                if (temporary == null) {
+                    execute("ALTER TABLE " + table() + " ADD COLUMN " + temporaryColumn + " BINARY(16) NULL;");
+                }
+
+                while (true) {
+                    int updated = executeUpdate("UPDATE " + table() + " SET " + temporaryColumn + " = UNHEX(REPLACE(" + column + ", '-', '')) WHERE " + temporaryColumn + " IS NULL LIMIT " + BATCH_SIZE + ";");
+                    if (updated < 0) {
+                        throw new CompletionException(new SQLException("Failed to convert the ids of " + table()));
+                    }
+                    if (updated == 0) {
+                        break;
+                    }
+                    count += updated;
+                }
+
+                if (temporary == null || !temporary[1].equalsIgnoreCase("PRI")) {
+                    execute("ALTER TABLE " + table() + " MODIFY " + temporaryColumn + " BINARY(16) NOT NULL;");
+                    execute("ALTER TABLE " + table() + " DROP PRIMARY KEY, ADD PRIMARY KEY (" + temporaryColumn + ");");
+                }
+                execute("ALTER TABLE " + table() + " DROP COLUMN " + column + ";");
+            }
+
+            execute("ALTER TABLE " + table() + " CHANGE " + temporaryColumn + " " + column + " BINARY(16) NOT NULL FIRST;");
+            return count;
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    /**
+     * Rewrites the existing rows with the payload codec, rows written before compression was enabled are only
+     * compressed once they are saved again otherwise. This is a no-op if compression is disabled.
+     *
+     * @return a future that will complete with the amount of rewritten rows.
+     */
+    default CompletableFuture<Long> compressPayloads() {
+        if (payloadCodec() == null) {
+            return CompletableFuture.completedFuture(0L);
+        }
+        return transform(SchemaTransform.builder().build());
+    }
+
+    private boolean isBinaryKey() {
+        return binaryKeys() && UUID.class.isAssignableFrom(IdUtils.getIdClass(value()));
+    }
+
+    /**
+     * Binds an id, or a cursor that is the string form of an id, in the format of the id column.
+     */
+    private void setKey(final PreparedStatement statement, final int index, final Object key) throws SQLException {
+        if (!isBinaryKey()) {
+            statement.setString(index, key.toString());
+            return;
+        }
+
+        statement.setBytes(index, toBytes(key instanceof UUID ? (UUID) key : UUID.fromString(key.toString())));
+    }
+
+    /**
+     * @return the 16 bytes a uuid is stored as in a BINARY(16) id column, the same bytes {@link #convertKeys()} creates
+     * from the string form of the uuid.
+     */
+    static byte[] toBytes(final UUID uuid) {
+        return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+    }
+
+    /**
+     * @return the uuid of the bytes of a BINARY(16) id column.
+     */
+    static UUID fromBytes(final byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Binds the json of a value in the format of the json column.
+     */
+    private void setJson(final PreparedStatement statement, final int index, final String json) throws SQLException {
+        if (payloadCodec() == null) {
+            statement.setString(index, json);
+        } else {
+            statement.setBytes(index, payloadCodec().encode(json));
+        }
+    }
+
+    /**
+     * @return the json of the value in the current row, decompressing it if needed.
+     */
+    default String getJson(final ResultSet resultSet) throws SQLException {
+        if (payloadCodec() == null) {
+            return resultSet.getString("json");
+        }
+        return PayloadCodec.decode(resultSet.getBytes("json"));
+    }
+
+    /**
+     * @return the string form of the id in a column, binary ids are read as their uuid.
+     */
+    private String getKey(final ResultSet resultSet, final String column) throws SQLException {
+        if (!isBinaryKey()) {
+            return resultSet.getString(column);
+        }
+
+        return fromBytes(resultSet.getBytes(column)).toString();
     }
 
     default CompletableFuture<Void> save(V value) {
+        return upsert(value, IdUtils.getTimeToLive(value()));
+    }
+
+    @Override
+    default CompletableFuture<Void> save(V value, Duration ttl) {
+        return upsert(value, ttl);
+    }
+
+    private CompletableFuture<Void> upsert(V value, @Nullable Duration ttl) {
         return CompletableFuture.runAsync(() -> {
-            Object id = IdUtils.getId(value());
+            Object id = IdUtils.getId(value(), value);
             if (id == null) {
                 logger().warning("Could not find id field for " + value().getSimpleName());
                 return;
             }
 
             String idName = IdUtils.getIdName(value());
-            String json = StorageAPIConstants.getGson().toJson(value);
-            executeUpdate("INSERT INTO " + table() + " (" + idName + ", json) VALUES (?, ?) ON DUPLICATE KEY UPDATE json = ?;", statement -> {
-                statement.setString(1, id.toString());
-                statement.setString(2, json);
+            String serialized = StorageAPIConstants.getGson().toJson(value);
+
+            ChangeTracker tracker = changeTracker();
+            ChangeTracker.Diff diff = tracker == null ? null : tracker.diff(id, serialized);
+            // an unchanged value still needs its expiry moved
+            if (diff != null && diff.isEmpty() && ttl == null) {
+                return;
+            }
+
+            // only stamp values that actually changed, otherwise every save would be a change
+            if (IdUtils.touch(value)) {
+                serialized = StorageAPIConstants.getGson().toJson(value);
+                diff = tracker == null ? null : tracker.diff(id, serialized);
+            }
+            String json = serialized;
+
+            if (ttl != null && expirySweeper() != null) {
+                expirySweeper().start();
+            }
+            String expiry = ttl == null ? "NULL" : NOW_MILLIS + " + ?";
+
+            // compressed values can only be written whole
+            if (diff != null && payloadCodec() == null) {
+                List<String> parameters = diff.sqlParameters();
+                int updated = executeUpdate("UPDATE " + table() + " SET json = " + diff.toSqlExpression("json") + ", expires_at = " + expiry + " WHERE `" + idName + "` = ?;", statement -> {
+                    int index = 1;
+                    for (String parameter : parameters) {
+                        statement.setString(index++, parameter);
+                    }
+                    if (ttl != null) {
+                        statement.setLong(index++, ttl.toMillis());
+                    }
+                    setKey(statement, index, id);
+                });
+
+                if (updated > 0) {
+                    tracker.track(id, json);
+                    return;
+                }
+            }
+
+            int updated = executeUpdate("INSERT INTO " + table() + " (" + idName + ", json, expires_at) VALUES (?, ?, " + expiry + ") ON DUPLICATE KEY UPDATE json = VALUES(json), expires_at = VALUES(expires_at);", statement -> {
+                setKey(statement, 1, id);
+                setJson(statement, 2, json);
+                if (ttl != null) {
+                    statement.setLong(3, ttl.toMillis());
+                }
             });
+
+            if (tracker != null && updated >= 0) {
+                tracker.track(id, json);
+            }
+            if (keyFilter() != null && updated >= 0) {
+                keyFilter().put(id);
+            }
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    @Override
+    default CompletableFuture<Boolean> replace(V value, @Nullable Long expectedVersion) {
+        Field versionField = IdUtils.getVersionField(value());
+        if (versionField == null) {
+            return save(value).thenApply(v -> true);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            Object id = IdUtils.getId(value(), value);
+            if (id == null) {
+                logger().warning("Could not find id field for " + value().getSimpleName());
+                return false;
+            }
+
+            IdUtils.setVersion(versionField, value, expectedVersion == null ? 1 : expectedVersion + 1);
+            IdUtils.touch(value);
+            String idName = IdUtils.getIdName(value());
+            String json = StorageAPIConstants.getGson().toJson(value);
+            Duration ttl = IdUtils.getTimeToLive(value());
+            String expiry = ttl == null ? "NULL" : NOW_MILLIS + " + " + ttl.toMillis();
+
+            int updated;
+            if (expectedVersion == null) {
+                // an expired row that wasn't swept yet counts as absent
+                executeUpdate("DELETE FROM " + table() + " WHERE `" + idName + "` = ? AND NOT " + NOT_EXPIRED + ";", statement -> {
+                    setKey(statement, 1, id);
+                });
+                updated = executeUpdate("INSERT IGNORE INTO " + table() + " (" + idName + ", json, expires_at) VALUES (?, ?, " + expiry + ");", statement -> {
+                    setKey(statement, 1, id);
+                    setJson(statement, 2, json);
+                });
+            } else if (payloadCodec() != null) {
+                updated = compareAndSet(id, versionField, expectedVersion, json, expiry);
+            } else {
+                updated = executeUpdate("UPDATE " + table() + " SET json = ?, expires_at = " + expiry + " WHERE `" + idName + "` = ? AND " + NOT_EXPIRED + " AND COALESCE(JSON_EXTRACT(json, '$." + versionField.getName() + "'), 0) = ?;", statement -> {
+                    statement.setString(1, json);
+                    setKey(statement, 2, id);
+                    statement.setLong(3, expectedVersion);
+                });
+            }
+
+            ChangeTracker tracker = changeTracker();
+            if (tracker != null && updated > 0) {
+                tracker.track(id, json);
+            }
+            if (keyFilter() != null && updated > 0) {
+                keyFilter().put(id);
+            }
+            return updated > 0;
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
+    /**
+     * Checks the version of a compressed value client side, the row stays locked between the check and the write.
+     *
+     * @return the amount of written rows.
+     */
+    private int compareAndSet(final Object id, final Field versionField, final long expectedVersion, final String json, final String expiry) {
+        String idName = IdUtils.getIdName(value());
+        try (Connection connection = dataSource().getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement select = connection.prepareStatement("SELECT json FROM " + table() + " WHERE `" + idName + "` = ? AND " + NOT_EXPIRED + " FOR UPDATE;");
+                 PreparedStatement update = connection.prepareStatement("UPDATE " + table() + " SET json = ?, expires_at = " + expiry + " WHERE `" + idName + "` = ?;")) {
+                setKey(select, 1, id);
+                long version;
+                try (ResultSet resultSet = select.executeQuery()) {
+                    if (!resultSet.next()) {
+                        connection.rollback();
+                        return 0;
+                    }
+                    JsonObject stored = JsonParser.parseString(getJson(resultSet)).getAsJsonObject();
+                    version = stored.has(versionField.getName()) ? stored.get(versionField.getName()).getAsLong() : 0;
+                }
+                if (version != expectedVersion) {
+                    connection.rollback();
+                    return 0;
+                }
+
+                setJson(update, 1, json);
+                setKey(update, 2, id);
+                int updated = update.executeUpdate();
+                connection.commit();
+                return updated;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger().warning("Error while replacing " + id + " in " + table());
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
     default CompletableFuture<Void> remove(V value) {
         return CompletableFuture.runAsync(() -> {
-            Object id = IdUtils.getId(value());
+            Object id = IdUtils.getId(value(), value);
             if (id == null) {
                 logger().warning("Could not find id field for " + value().getSimpleName());
                 return;
@@ -170,23 +728,33 @@ public interface SQLStorage<K, V> extends KeyedStorage<K, V>, ConstructableValue
 
             String idName = IdUtils.getIdName(value());
             executeUpdate("DELETE FROM " + table() + " WHERE `" + idName + "` = ?;", statement -> {
-                statement.setString(1, id.toString());
+                setKey(statement, 1, id);
             });
+
+            ChangeTracker tracker = changeTracker();
+            if (tracker != null) {
+                tracker.forget(id);
+            }
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
 
     default CompletableFuture<V> get(K key) {
+        return get(key, false);
+    }
+
+    @Override
+    default CompletableFuture<V> get(K key, boolean primary) {
         return CompletableFuture.supplyAsync(() -> {
             String idName = IdUtils.getIdName(value());
 
             AtomicReference<V> value = new AtomicReference<>();
 
-            query("SELECT * FROM " + table() + " WHERE `" + idName + "` = ?;", statement -> {
-                statement.setString(1, key.toString());
+            query(primary, "SELECT * FROM " + table() + " WHERE `" + idName + "` = ? AND " + NOT_EXPIRED + ";", statement -> {
+                setKey(statement, 1, key);
             }, resultSet -> {
                 try {
                     if (resultSet.next()) {
-                        value.set(StorageAPIConstants.getGson().fromJson(resultSet.getString("json"), value()));
+                        value.set(StorageAPIConstants.getGson().fromJson(getJson(resultSet), value()));
                     }
                 } catch (SQLException e) {
                     e.printStackTrace();
@@ -195,7 +763,199 @@ public interface SQLStorage<K, V> extends KeyedStorage<K, V>, ConstructableValue
                 resultSet.close();
             }).join();
 
+            // a snapshot of a stale replica read would make a save of a changed value look unchanged
+            ChangeTracker tracker = changeTracker();
+            if (tracker != null && value.get() != null && (primary || readsPrimary())) {
+                tracker.track(key, StorageAPIConstants.getGson().toJson(value.get()));
+            }
+
             return value.get();
         }, StorageAPIConstants.DB_THREAD_POOL);
     }
+
+    @Override
+    default CompletableFuture<Chunk<V>> chunk(@Nullable String cursor, int limit) {
+        return chunk(null, 0, cursor, limit);
+    }
+
+    @Override
+    default CompletableFuture<Chunk<V>> changedSince(long since, @Nullable String cursor, int limit) {
+        Field updatedAtField = IdUtils.getUpdatedAtField(value());
+        if (updatedAtField == null) {
+            return chunk(cursor, limit);
+        }
+        if (payloadCodec() != null) {
+            // compressed values can't be filtered on the database, skip chunks without changes so an empty chunk still means the end
+            return CompletableFuture.supplyAsync(() -> {
+                String next = cursor;
+                while (true) {
+                    Chunk<V> chunk = chunk(next, limit).join();
+                    List<V> changed = chunk.values().stream().filter(value -> {
+                        Long updatedAt = IdUtils.getUpdatedAt(value);
+                        return updatedAt == null || updatedAt >= since;
+                    }).toList();
+                    if (!changed.isEmpty() || chunk.cursor() == null) {
+                        return new Chunk<>(changed, chunk.cursor());
+                    }
+                    next = chunk.cursor();
+                }
+            }, StorageAPIConstants.DB_THREAD_POOL);
+        }
+        return chunk(UPDATED_AT + " >= ?", since, cursor, limit);
+    }
+
+    private CompletableFuture<Chunk<V>> chunk(@Nullable String condition, long parameter, @Nullable String cursor, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            String idName = IdUtils.getIdName(value());
+            List<V> values = new ArrayList<>();
+            AtomicReference<String> last = new AtomicReference<>();
+
+            StringJoiner where = new StringJoiner(" AND ", " WHERE ", "");
+            where.add(NOT_EXPIRED);
+            if (condition != null) {
+                where.add(condition);
+            }
+            if (cursor != null) {
+                where.add("`" + idName + "` > ?");
+            }
+
+            read(false, "SELECT * FROM " + table() + where + " ORDER BY `" + idName + "` LIMIT ?;", statement -> {
+                int index = 1;
+                if (condition != null) {
+                    statement.setLong(index++, parameter);
+                }
+                if (cursor != null) {
+                    setKey(statement, index++, cursor);
+                }
+                statement.setInt(index, limit);
+            }, resultSet -> {
+                while (resultSet.next()) {
+                    values.add(StorageAPIConstants.getGson().fromJson(getJson(resultSet), value()));
+                    last.set(getKey(resultSet, idName));
+                }
+                resultSet.close();
+            }).join();
+
+            return Chunk.of(values, last.get(), limit);
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    @Override
+    default CompletableFuture<Boolean> contains(K key) {
+        if (keyFilter() != null && !keyFilter().mightContain(key)) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            String idName = IdUtils.getIdName(value());
+            AtomicBoolean exists = new AtomicBoolean();
+            query("SELECT 1 FROM " + table() + " WHERE `" + idName + "` = ? AND " + NOT_EXPIRED + " LIMIT 1;", statement -> {
+                setKey(statement, 1, key);
+            }, resultSet -> {
+                exists.set(resultSet.next());
+                resultSet.close();
+            }).join();
+            return exists.get();
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    @Override
+    default CompletableFuture<Chunk<String>> keys(@Nullable String cursor, int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            String idName = IdUtils.getIdName(value());
+            List<String> ids = new ArrayList<>();
+
+            read(true, "SELECT `" + idName + "` FROM " + table() + (cursor == null ? "" : " WHERE `" + idName + "` > ?") + " ORDER BY `" + idName + "` LIMIT ?;", statement -> {
+                int index = 1;
+                if (cursor != null) {
+                    setKey(statement, index++, cursor);
+                }
+                statement.setInt(index, limit);
+            }, resultSet -> {
+                while (resultSet.next()) {
+                    ids.add(getKey(resultSet, idName));
+                }
+                resultSet.close();
+            }).join();
+
+            return Chunk.of(ids, ids.isEmpty() ? null : ids.get(ids.size() - 1), limit);
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    @Override
+    default CompletableFuture<Long> transform(SchemaTransform transform) {
+        ChangeTracker tracker = changeTracker();
+        if (tracker != null) {
+            tracker.clear();
+        }
+
+        String idName = IdUtils.getIdName(value());
+        return transform.run(this::keys, (after, upTo) -> {
+            String range = "`" + idName + "` <= ?" + (after == null ? "" : " AND `" + idName + "` > ?");
+
+            if (transform.isNative() && payloadCodec() == null) {
+                // assignments are applied left to right, every one sees the result of the previous one
+                StringJoiner assignments = new StringJoiner(", ");
+                transform.renames().forEach((path, newPath) -> {
+                    assignments.add("json = IF(JSON_CONTAINS_PATH(json, 'one', '$." + path + "'), JSON_SET(json, '$." + newPath + "', JSON_EXTRACT(json, '$." + path + "')), json)");
+                    // JSON_SET doesn't create missing parents, only drop the old path if the new one was written
+                    assignments.add("json = IF(JSON_CONTAINS_PATH(json, 'one', '$." + newPath + "'), JSON_REMOVE(json, '$." + path + "'), json)");
+                });
+                transform.removals().forEach(path -> assignments.add("json = JSON_REMOVE(json, '$." + path + "')"));
+                if (assignments.length() == 0) {
+                    return;
+                }
+
+                int updated = executeUpdate("UPDATE " + table() + " SET " + assignments + " WHERE " + range + ";", statement -> {
+                    setKey(statement, 1, upTo);
+                    if (after != null) {
+                        setKey(statement, 2, after);
+                    }
+                });
+                if (updated < 0) {
+                    throw new SQLException("Failed to transform values up to " + upTo);
+                }
+                return;
+            }
+
+            // the rows of the chunk stay locked while they are changed client side
+            try (Connection connection = dataSource().getConnection()) {
+                connection.setAutoCommit(false);
+                try (PreparedStatement select = connection.prepareStatement("SELECT `" + idName + "`, json FROM " + table() + " WHERE " + range + " FOR UPDATE;");
+                     PreparedStatement update = connection.prepareStatement("UPDATE " + table() + " SET json = ? WHERE `" + idName + "` = ?;")) {
+                    setKey(select, 1, upTo);
+                    if (after != null) {
+                        setKey(select, 2, after);
+                    }
+                    try (ResultSet resultSet = select.executeQuery()) {
+                        while (resultSet.next()) {
+                            JsonObject json = JsonParser.parseString(getJson(resultSet)).getAsJsonObject();
+                            setJson(update, 1, transform.apply(json).toString());
+                            setKey(update, 2, getKey(resultSet, idName));
+                            update.addBatch();
+                        }
+                    }
+                    update.executeBatch();
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
+        });
+    }
+
+    @Override
+    default CompletableFuture<Void> renameField(String path, String newPath) {
+        return transform(SchemaTransform.builder().rename(path, newPath).build()).thenAccept(count -> {
+        });
+    }
+
+    @Override
+    default CompletableFuture<Void> renameFields(Map<String, String> pathToNewPath) {
+        return transform(SchemaTransform.builder().renames(pathToNewPath).build()).thenAccept(count -> {
+        });
+    }
 }
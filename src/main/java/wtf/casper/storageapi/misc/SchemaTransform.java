@@ -0,0 +1,249 @@
+package wtf.casper.storageapi.misc;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.Singular;
+import lombok.experimental.Accessors;
+import lombok.extern.java.Log;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.Chunk;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * A set of changes to the stored form of values that is applied to a storage in the background.
+ * Every value is changed once with all renames, removals and transforms in that order.
+ * The storage is processed in id ranges of {@code chunkSize} values with a pause of {@code throttle}
+ * between them, so no statement holds locks on more than one chunk at a time.
+ * <pre>{@code
+ * storage.transform(SchemaTransform.builder()
+ *         .rename("name", "displayName")
+ *         .remove("legacy.flags")
+ *         .transform(json -> { json.addProperty("schema", 2); return json; })
+ *         .throttle(Duration.ofMillis(50))
+ *         .build());
+ * }</pre>
+ */
+@Log
+@Getter
+@Accessors(fluent = true)
+public class SchemaTransform {
+
+    /**
+     * Dotted paths to move to a new path, values that don't have the old path are left alone.
+     */
+    private final Map<String, String> renames;
+    /**
+     * Dotted paths to remove.
+     */
+    private final List<String> removals;
+    /**
+     * Changes that can't be expressed as paths, these are applied to the json of every value client side.
+     */
+    private final List<UnaryOperator<JsonObject>> transforms;
+    private final int chunkSize;
+    private final Duration throttle;
+
+    @Builder
+    private SchemaTransform(final Map<String, String> renames, @Singular("remove") final List<String> removals,
+                            @Singular final List<UnaryOperator<JsonObject>> transforms, final int chunkSize, final Duration throttle) {
+        this.renames = Collections.unmodifiableMap(new LinkedHashMap<>(renames));
+        this.removals = removals;
+        this.transforms = transforms;
+        this.chunkSize = chunkSize;
+        this.throttle = throttle;
+    }
+
+    /**
+     * @return whether the transform can be applied by the database without reading the values.
+     */
+    public boolean isNative() {
+        return transforms.isEmpty();
+    }
+
+    /**
+     * Applies all changes to the json of a single value.
+     */
+    public JsonObject apply(JsonObject json) {
+        for (Map.Entry<String, String> rename : renames.entrySet()) {
+            JsonElement value = remove(json, rename.getKey());
+            if (value != null) {
+                set(json, rename.getValue(), value);
+            }
+        }
+        for (String removal : removals) {
+            remove(json, removal);
+        }
+        for (UnaryOperator<JsonObject> transform : transforms) {
+            json = transform.apply(json);
+        }
+        return json;
+    }
+
+    /**
+     * Runs the transform over id ranges, used by storages that can change a range of values in one statement.
+     *
+     * @param keys reads the ids after a cursor in order.
+     * @param range changes all values with an id after the first (exclusive, null for the start) and up to the second id.
+     * @return a future that will complete with the amount of visited values.
+     */
+    public CompletableFuture<Long> run(final KeyScan keys, final RangeUpdate range) {
+        return CompletableFuture.supplyAsync(() -> {
+            long count = 0;
+            String cursor = null;
+            String after = null;
+            try {
+                while (true) {
+                    Chunk<String> ids = keys.read(cursor, chunkSize).join();
+                    if (ids.values().isEmpty()) {
+                        break;
+                    }
+
+                    String last = ids.values().get(ids.values().size() - 1);
+                    range.apply(after, last);
+                    count += ids.values().size();
+
+                    if (ids.cursor() == null) {
+                        break;
+                    }
+                    cursor = ids.cursor();
+                    after = last;
+                    pause();
+                }
+            } catch (Exception e) {
+                throw new CompletionException("Schema transform failed after " + count + " values", e);
+            }
+
+            log.info("Schema transform finished, visited " + count + " values");
+            return count;
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    /**
+     * Runs the transform by reading, changing and saving the values, used by storages without a native implementation.
+     *
+     * @param source reads the values in order.
+     * @param target saves the changed values.
+     * @return a future that will complete with the amount of visited values.
+     */
+    public <V> CompletableFuture<Long> run(final Migration.Source<V> source, final Function<Collection<V>, CompletableFuture<Void>> target) {
+        return CompletableFuture.supplyAsync(() -> {
+            long count = 0;
+            String cursor = null;
+            while (true) {
+                Chunk<V> chunk = source.read(cursor, chunkSize).join();
+                if (chunk.values().isEmpty()) {
+                    break;
+                }
+
+                List<V> changed = new ArrayList<>(chunk.values().size());
+                for (V value : chunk.values()) {
+                    JsonObject json = StorageAPIConstants.getGson().toJsonTree(value).getAsJsonObject();
+                    changed.add(StorageAPIConstants.getGson().fromJson(apply(json), classOf(value)));
+                }
+                target.apply(changed).join();
+                count += changed.size();
+
+                if (chunk.cursor() == null) {
+                    break;
+                }
+                cursor = chunk.cursor();
+                pause();
+            }
+            return count;
+        }, StorageAPIConstants.DB_THREAD_POOL);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Class<V> classOf(final V value) {
+        return (Class<V>) value.getClass();
+    }
+
+    private void pause() {
+        if (throttle.isZero() || throttle.isNegative()) {
+            return;
+        }
+
+        try {
+            Thread.sleep(throttle.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        }
+    }
+
+    @Nullable
+    private static JsonElement remove(final JsonObject json, final String path) {
+        int index = path.lastIndexOf('.');
+        JsonObject parent = index < 0 ? json : parent(json, path.substring(0, index), false);
+        return parent == null ? null : parent.remove(path.substring(index + 1));
+    }
+
+    private static void set(final JsonObject json, final String path, final JsonElement value) {
+        int index = path.lastIndexOf('.');
+        JsonObject parent = index < 0 ? json : parent(json, path.substring(0, index), true);
+        if (parent != null) {
+            parent.add(path.substring(index + 1), value);
+        }
+    }
+
+    @Nullable
+    private static JsonObject parent(final JsonObject json, final String path, final boolean create) {
+        JsonObject current = json;
+        for (String key : path.split("\\.")) {
+            JsonElement next = current.get(key);
+            if (next == null && create) {
+                next = new JsonObject();
+                current.add(key, next);
+            }
+            if (next == null || !next.isJsonObject()) {
+                return null;
+            }
+            current = next.getAsJsonObject();
+        }
+        return current;
+    }
+
+    // renames are kept in a plain map, a singular map would make lombok cast every value
+    public static class SchemaTransformBuilder {
+        private final Map<String, String> renames = new LinkedHashMap<>();
+        private int chunkSize = 500;
+        private Duration throttle = Duration.ZERO;
+
+        public SchemaTransformBuilder rename(final String path, final String newPath) {
+            renames.put(path, newPath);
+            return this;
+        }
+
+        public SchemaTransformBuilder renames(final Map<? extends String, ? extends String> renames) {
+            this.renames.putAll(renames);
+            return this;
+        }
+    }
+
+    /**
+     * Reads the ids after a cursor in order, the cursor of the returned chunk is the last id or null if there are no more.
+     */
+    @FunctionalInterface
+    public interface KeyScan {
+        CompletableFuture<Chunk<String>> read(@Nullable String cursor, int limit);
+    }
+
+    @FunctionalInterface
+    public interface RangeUpdate {
+        void apply(@Nullable String after, String upTo) throws Exception;
+    }
+}
@@ -0,0 +1,143 @@
+package wtf.casper.storageapi.misc;
+
+import lombok.Builder;
+import lombok.NonNull;
+import lombok.extern.java.Log;
+import org.jetbrains.annotations.Nullable;
+import wtf.casper.storageapi.Chunk;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Copies the values that changed since the previous run from one storage to another.
+ * Changes are found with the {@link wtf.casper.storageapi.id.UpdatedAt} field of the values,
+ * the time the last successful run started at is kept as the watermark for the next run.
+ * Deleted values are not detected and stay in the target.
+ * <pre>{@code
+ * target.sync(source)
+ *         .watermark(Path.of("sync.watermark"))
+ *         .build()
+ *         .schedule(Duration.ofMinutes(1));
+ * }</pre>
+ */
+@Log
+@Builder
+public class Sync<V> {
+
+    @NonNull
+    private final Source<V> source;
+    @NonNull
+    private final Function<Collection<V>, CompletableFuture<Void>> target;
+    @Builder.Default
+    private final int chunkSize = 1000;
+    @Builder.Default
+    private final int writers = 4;
+    /**
+     * The file the watermark is stored in, if null the watermark is only kept in memory.
+     */
+    @Nullable
+    private final Path watermark;
+    /**
+     * Moves the watermark back to also catch writes from clocks that are slightly behind.
+     */
+    @Builder.Default
+    private final Duration overlap = Duration.ofSeconds(5);
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong lastWatermark = new AtomicLong(-1);
+
+    /**
+     * Copies the values that changed since the last run, the first run copies everything.
+     *
+     * @return a future that will complete with the amount of copied values.
+     */
+    public CompletableFuture<Long> run() {
+        long started = System.currentTimeMillis();
+
+        // read in the future, so an unreadable watermark fails the run instead of throwing out of a scheduled task
+        return CompletableFuture.supplyAsync(this::readWatermark, StorageAPIConstants.DB_THREAD_POOL)
+                .thenCompose(since -> Migration.<V>builder()
+                        .source((cursor, limit) -> source.read(since, cursor, limit))
+                        .target(target)
+                        .chunkSize(chunkSize)
+                        .writers(writers)
+                        .build()
+                        .run())
+                .thenApply(count -> {
+                    writeWatermark(started - overlap.toMillis());
+                    return count;
+                });
+    }
+
+    /**
+     * Runs the sync with the given delay between runs until the returned future is cancelled.
+     * A run is skipped if the previous one is still in progress.
+     */
+    public ScheduledFuture<?> schedule(final Duration period) {
+        return StorageAPIConstants.SCHEDULER.scheduleWithFixedDelay(() -> {
+            if (!running.compareAndSet(false, true)) {
+                return;
+            }
+
+            run().whenComplete((count, throwable) -> {
+                running.set(false);
+                if (throwable != null) {
+                    log.warning("Sync failed, retrying on the next run");
+                    throwable.printStackTrace();
+                }
+            });
+        }, 0, period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private long readWatermark() {
+        if (watermark == null || lastWatermark.get() >= 0) {
+            return Math.max(0, lastWatermark.get());
+        }
+
+        if (!Files.exists(watermark)) {
+            return 0;
+        }
+
+        try {
+            return Long.parseLong(Files.readString(watermark, StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            throw new IllegalStateException("Could not read sync watermark " + watermark, e);
+        }
+    }
+
+    private void writeWatermark(final long time) {
+        lastWatermark.set(time);
+        if (watermark == null) {
+            return;
+        }
+
+        try {
+            Path temp = watermark.resolveSibling(watermark.getFileName() + ".tmp");
+            Files.writeString(temp, Long.toString(time), StandardCharsets.UTF_8);
+            Files.move(temp, watermark, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warning("Could not write sync watermark " + watermark);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads an ordered chunk of the values written at or after a time.
+     */
+    @FunctionalInterface
+    public interface Source<V> {
+        CompletableFuture<Chunk<V>> read(long since, @Nullable String cursor, int limit);
+    }
+}
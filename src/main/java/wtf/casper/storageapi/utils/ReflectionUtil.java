@@ -9,6 +9,7 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.*;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -194,6 +195,53 @@ public class ReflectionUtil {
         return null;
     }
 
+    /**
+     * Find a field by a dotted path (e.g. data.balance), arrays and collections on the way are stepped into.
+     *
+     * @param clazz the class the path starts at
+     * @param path  the dotted path of the field
+     * @return the field or null if the path doesn't resolve
+     */
+    @Nullable
+    public static Field findField(Class<?> clazz, String path) {
+        Field found = null;
+        Class<?> current = clazz;
+        for (String name : path.split("\\.")) {
+            if (current == null) {
+                return null;
+            }
+            found = null;
+            for (Field field : getAllFields(current)) {
+                if (field.getName().equals(name)) {
+                    found = field;
+                    break;
+                }
+            }
+            if (found == null) {
+                return null;
+            }
+            Class<?> element = getElementType(found);
+            current = element != null ? element : found.getType();
+        }
+        return found;
+    }
+
+    /**
+     * @param field the field to get the element type of
+     * @return the element type of an array or collection field or null if the field is neither
+     */
+    @Nullable
+    public static Class<?> getElementType(Field field) {
+        if (field.getType().isArray()) {
+            return field.getType().getComponentType();
+        }
+        if (Collection.class.isAssignableFrom(field.getType())) {
+            Type type = field.getGenericType() instanceof ParameterizedType parameterizedType ? parameterizedType.getActualTypeArguments()[0] : Object.class;
+            return type instanceof Class<?> elementClass ? elementClass : Object.class;
+        }
+        return null;
+    }
+
     /**
      * @param v         the object to get the field from
      * @param fieldName the name of the field
@@ -1,5 +1,6 @@
 package wtf.casper.storageapi.utils;
 
+import com.google.common.util.concurrent.Striped;
 import com.google.gson.ExclusionStrategy;
 import com.google.gson.FieldAttributes;
 import com.google.gson.Gson;
@@ -13,7 +14,9 @@ import wtf.casper.storageapi.id.Transient;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
 @Log
 public class StorageAPIConstants {
@@ -28,6 +31,17 @@ public class StorageAPIConstants {
         return thread;
     });
 
+    // runs periodic maintenance (tier demotion, sweepers...), the actual work should be handed to DB_THREAD_POOL
+    public static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r);
+        thread.setDaemon(true);
+        thread.setName("wtf.casper.storageapi Scheduler");
+        return thread;
+    });
+
+    // guards read-modify-write cycles of the same key inside this jvm so they don't race each other on the database
+    public static final Striped<Lock> KEY_LOCKS = Striped.lazyWeakLock(1024);
+
     @Getter
     private final static JsonWriterSettings jsonWriterSettings = JsonWriterSettings.builder()
             .int64Converter((value, writer) -> writer.writeNumber(value.toString()))
@@ -0,0 +1,33 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.misc.SQLStorage;
+
+import java.util.HexFormat;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryKeyTests {
+
+    @Test
+    public void testRoundTrip() {
+        for (int i = 0; i < 1000; i++) {
+            UUID uuid = UUID.randomUUID();
+            byte[] bytes = SQLStorage.toBytes(uuid);
+            assertEquals(16, bytes.length);
+            assertEquals(uuid, SQLStorage.fromBytes(bytes));
+        }
+
+        UUID edge = new UUID(-1L, 0L);
+        assertEquals(edge, SQLStorage.fromBytes(SQLStorage.toBytes(edge)));
+    }
+
+    @Test
+    public void testMatchesConvertedStrings() {
+        // convertKeys stores UNHEX(REPLACE(id, '-', '')), saves must bind the same bytes
+        UUID uuid = UUID.fromString("0f1e2d3c-4b5a-6978-8796-a5b4c3d2e1f0");
+        assertEquals(uuid.toString().replace("-", ""), HexFormat.of().formatHex(SQLStorage.toBytes(uuid)));
+        assertEquals(uuid, SQLStorage.fromBytes(HexFormat.of().parseHex("0f1e2d3c4b5a69788796a5b4c3d2e1f0")));
+    }
+}
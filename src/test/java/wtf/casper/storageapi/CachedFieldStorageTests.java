@@ -0,0 +1,169 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.impl.fstorage.CachedFieldStorage;
+import wtf.casper.storageapi.misc.ConditionMatcher;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachedFieldStorageTests {
+
+    private static final UUID ID = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final UUID OTHER_ID = UUID.fromString("00000000-0000-0000-0000-000000000002");
+
+    @Test
+    public void testCachedUntilMatchingSave() {
+        CountingFieldStorage delegate = new CountingFieldStorage();
+        CachedFieldStorage<UUID, TestObject> storage = new CachedFieldStorage<>(delegate, Duration.ofMinutes(5), 100);
+        storage.save(new TestObject(ID, "John", 18, null)).join();
+
+        Query adults = Query.of().condition(Condition.of("age", 18, ConditionType.EQUALS));
+        assertEquals(1, storage.get(adults).join().size());
+        assertEquals(1, storage.get(adults).join().size());
+        assertEquals(1, delegate.loads.get());
+
+        // can't be part of the result
+        storage.save(new TestObject(OTHER_ID, "Jane", 30, null)).join();
+        assertEquals(1, storage.get(adults).join().size());
+        assertEquals(1, delegate.loads.get());
+
+        storage.save(new TestObject(OTHER_ID, "Jane", 18, null)).join();
+        assertEquals(2, storage.get(adults).join().size());
+        assertEquals(2, delegate.loads.get());
+    }
+
+    @Test
+    public void testSaveOfContainedValueInvalidates() {
+        CountingFieldStorage delegate = new CountingFieldStorage();
+        CachedFieldStorage<UUID, TestObject> storage = new CachedFieldStorage<>(delegate, Duration.ofMinutes(5), 100);
+        storage.save(new TestObject(ID, "John", 18, null)).join();
+
+        Query adults = Query.of().condition(Condition.of("age", 18, ConditionType.EQUALS));
+        assertEquals(1, storage.get(adults).join().size());
+
+        // no longer matches, but was part of the result
+        storage.save(new TestObject(ID, "John", 19, null)).join();
+        assertTrue(storage.get(adults).join().isEmpty());
+        assertEquals(2, delegate.loads.get());
+    }
+
+    @Test
+    public void testCountsAreDroppedOnEveryWrite() {
+        CountingFieldStorage delegate = new CountingFieldStorage();
+        CachedFieldStorage<UUID, TestObject> storage = new CachedFieldStorage<>(delegate, Duration.ofMinutes(5), 100);
+        storage.save(new TestObject(ID, "John", 18, null)).join();
+
+        Query adults = Query.of().condition(Condition.of("age", 18, ConditionType.EQUALS));
+        assertEquals(1, (long) storage.count(adults).join());
+        assertEquals(1, (long) storage.count(adults).join());
+        assertEquals(1, delegate.loads.get());
+
+        storage.save(new TestObject(OTHER_ID, "Jane", 30, null)).join();
+        assertEquals(1, (long) storage.count(adults).join());
+        assertEquals(2, delegate.loads.get());
+
+        storage.remove(Query.of().condition(Condition.of("name", "John", ConditionType.EQUALS))).join();
+        assertEquals(0, (long) storage.count(adults).join());
+        assertEquals(3, delegate.loads.get());
+    }
+
+    @Test
+    public void testUnsupportedIndexes() {
+        CachedFieldStorage<UUID, TestObject> storage = new CachedFieldStorage<>(new CountingFieldStorage(), Duration.ofMinutes(5), 100);
+        CompletionException exception = assertThrows(CompletionException.class, () -> storage.textIndex("name").join());
+        assertTrue(exception.getCause() instanceof UnsupportedOperationException);
+        exception = assertThrows(CompletionException.class, () -> storage.indexIgnoreCase("name").join());
+        assertTrue(exception.getCause() instanceof UnsupportedOperationException);
+    }
+
+    @Test
+    public void testPrimaryBypassesCache() {
+        CountingFieldStorage delegate = new CountingFieldStorage();
+        CachedFieldStorage<UUID, TestObject> storage = new CachedFieldStorage<>(delegate, Duration.ofMinutes(5), 100);
+        storage.save(new TestObject(ID, "John", 18, null)).join();
+
+        Query query = Query.of().condition(Condition.of("age", 18, ConditionType.EQUALS)).primary(true);
+        storage.get(query).join();
+        storage.get(query).join();
+        assertEquals(2, delegate.loads.get());
+
+        storage.get().join();
+        storage.invalidateAll();
+        storage.get().join();
+        assertEquals(4, delegate.loads.get());
+    }
+
+    /**
+     * Keeps the values in memory and counts the reads that reach it.
+     */
+    private static final class CountingFieldStorage implements FieldStorage<UUID, TestObject> {
+        private final Map<UUID, TestObject> values = new ConcurrentHashMap<>();
+        private final AtomicInteger loads = new AtomicInteger();
+
+        @Override
+        public CompletableFuture<Collection<TestObject>> get() {
+            return get(Query.of());
+        }
+
+        @Override
+        public CompletableFuture<Collection<TestObject>> get(Query query) {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture(values.values().stream()
+                    .filter(value -> ConditionMatcher.mightMatch(query.expression(), value))
+                    .toList());
+        }
+
+        @Override
+        public CompletableFuture<Void> remove(Query query) {
+            values.values().removeIf(value -> ConditionMatcher.mightMatch(query.expression(), value));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<List<AggregationResult>> aggregate(Query query) {
+            return CompletableFuture.failedFuture(new UnsupportedOperationException());
+        }
+
+        @Override
+        public CompletableFuture<Void> save(TestObject value) {
+            values.put(value.getId(), value);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> write() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> deleteAll() {
+            values.clear();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Collection<TestObject>> allValues() {
+            return CompletableFuture.completedFuture(List.copyOf(values.values()));
+        }
+
+        @Override
+        public CompletableFuture<Void> index(String field) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> unindex(String field) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
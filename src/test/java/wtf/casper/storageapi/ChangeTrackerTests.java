@@ -0,0 +1,74 @@
+package wtf.casper.storageapi;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.misc.ChangeTracker;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChangeTrackerTests {
+
+    private static final UUID ID = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    @Test
+    public void testSkipUnchanged() {
+        ChangeTracker tracker = new ChangeTracker();
+        String json = json(new TestObject(ID, "John", 18, null));
+
+        assertNull(tracker.diff(ID, json));
+        tracker.track(ID, json);
+        assertTrue(tracker.diff(ID, json).isEmpty());
+
+        tracker.forget(ID);
+        assertNull(tracker.diff(ID, json));
+    }
+
+    @Test
+    public void testPatchChangedPaths() {
+        ChangeTracker tracker = new ChangeTracker();
+        tracker.track(ID, "{\"name\":\"John\",\"age\":18,\"balance\":{\"amount\":100,\"currency\":\"USD\"}}");
+
+        ChangeTracker.Diff diff = tracker.diff(ID, "{\"name\":\"John\",\"age\":19,\"balance\":{\"amount\":200,\"currency\":\"USD\"}}");
+        assertNotNull(diff);
+        assertEquals(List.of("age", "balance.amount"), List.copyOf(diff.set().keySet()));
+        assertTrue(diff.unset().isEmpty());
+        assertEquals("JSON_SET(json, '$.age', JSON_EXTRACT(?, '$'), '$.balance.amount', JSON_EXTRACT(?, '$'))", diff.toSqlExpression("json"));
+        assertEquals(List.of("19", "200"), diff.sqlParameters());
+        assertEquals(200, (int) diff.toMongoUpdate().get("$set", Document.class).getInteger("balance.amount"));
+
+        diff = tracker.diff(ID, "{\"name\":\"John\",\"age\":18}");
+        assertNotNull(diff);
+        assertEquals(List.of("balance"), diff.unset());
+        assertEquals("JSON_REMOVE(json, '$.balance')", diff.toSqlExpression("json"));
+        assertEquals("", diff.toMongoUpdate().get("$unset", Document.class).getString("balance"));
+    }
+
+    @Test
+    public void testUnsafeKeysAreWrittenWhole() {
+        ChangeTracker tracker = new ChangeTracker();
+        // map keys like the ones of TestObjectData#balanceMap would need quoting in a path
+        tracker.track(ID, json(new TestObject(ID, "John", 18, new TestObjectData("123 Fake Street", "Walmart", "test@test.com", "123-456-7890", 18, new TestObjectBalance(100, "USD")))));
+        assertNull(tracker.diff(ID, json(new TestObject(ID, "John", 19, new TestObjectData("123 Fake Street", "Walmart", "test@test.com", "123-456-7890", 18, new TestObjectBalance(100, "USD"))))));
+    }
+
+    @Test
+    public void testBounded() {
+        ChangeTracker tracker = new ChangeTracker(100);
+        for (int i = 0; i < 1000; i++) {
+            UUID id = UUID.randomUUID();
+            tracker.track(id, json(new TestObject(id, "Name " + i, i, null)));
+        }
+        assertTrue(tracker.size() <= 100);
+
+        tracker.clear();
+        assertEquals(0, tracker.size());
+    }
+
+    private static String json(TestObject value) {
+        return StorageAPIConstants.getGson().toJson(value);
+    }
+}
@@ -0,0 +1,91 @@
+package wtf.casper.storageapi;
+
+import com.mongodb.MongoCompressor;
+import com.zaxxer.hikari.HikariConfig;
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.misc.DataSourceProvider;
+import wtf.casper.storageapi.misc.MongoProvider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressionTests {
+
+    @Test
+    public void testCompressorNames() {
+        assertEquals(List.of("zstd", "snappy", "zlib"), names(MongoProvider.compressors(List.of("zstd", "Snappy", "ZLIB"))));
+        assertEquals(List.of("zlib", "zstd"), names(MongoProvider.compressors(List.of("zlib", "zstd"))));
+        assertTrue(MongoProvider.compressors(List.of()).isEmpty());
+    }
+
+    @Test
+    public void testUnknownCompressor() {
+        IllegalArgumentException exception = assertThrows(IllegalArgumentException.class, () -> MongoProvider.compressors(List.of("zlib", "lz4")));
+        assertTrue(exception.getMessage().contains("lz4"), exception.getMessage());
+    }
+
+    @Test
+    public void testMissingCompressorIsSkipped() throws Exception {
+        ClassLoader loader = new WithoutZstd(CompressionTests.class.getClassLoader());
+        Class<?> provider = loader.loadClass(MongoProvider.class.getName());
+        List<?> compressors = (List<?>) provider.getMethod("compressors", List.class).invoke(null, List.of("zstd", "zlib"));
+
+        assertEquals(List.of("zlib"), compressors.stream().map(compressor -> ((MongoCompressor) compressor).getName()).toList());
+    }
+
+    @Test
+    public void testJdbcCompression() {
+        HikariConfig compressed = config(Credentials.builder().compressors(List.of("zstd")).build());
+        assertEquals("true", compressed.getDataSourceProperties().getProperty("useCompression"));
+
+        HikariConfig plain = config(Credentials.builder().build());
+        assertNull(plain.getDataSourceProperties().getProperty("useCompression"));
+    }
+
+    private List<String> names(List<MongoCompressor> compressors) {
+        return compressors.stream().map(MongoCompressor::getName).toList();
+    }
+
+    private HikariConfig config(Credentials credentials) {
+        return DataSourceProvider.config("org.mariadb.jdbc.Driver", "jdbc:mariadb://127.0.0.1:1/storageapi_test", "root", "", credentials);
+    }
+
+    /**
+     * Loads its own copy of {@link MongoProvider} that can't see zstd, like a plugin shipped without the optional jar.
+     */
+    private static final class WithoutZstd extends ClassLoader {
+
+        private WithoutZstd(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.startsWith("com.github.luben.zstd.")) {
+                throw new ClassNotFoundException(name);
+            }
+            if (!name.startsWith(MongoProvider.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded != null) {
+                    return loaded;
+                }
+                try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                    if (in == null) {
+                        throw new ClassNotFoundException(name);
+                    }
+                    byte[] bytes = in.readAllBytes();
+                    return defineClass(name, bytes, 0, bytes.length);
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.id.exceptions.VersionConflictException;
+import wtf.casper.storageapi.impl.kvstorage.MemoryKVStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ComputeTests {
+
+    private static final UUID ID = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    @Test
+    public void testComputeCreatesUpdatesAndRemoves() {
+        MemoryKVStorage<UUID, TestObjectVersioned> storage = new MemoryKVStorage<>(UUID.class, TestObjectVersioned.class);
+
+        TestObjectVersioned created = storage.compute(ID, current -> {
+            assertNull(current);
+            return new TestObjectVersioned(ID, 1);
+        }).join();
+        assertEquals(1, created.getVersion());
+
+        TestObjectVersioned updated = storage.compute(ID, current -> {
+            current.setCount(current.getCount() + 1);
+            return current;
+        }).join();
+        assertEquals(2, updated.getCount());
+        assertEquals(2, updated.getVersion());
+
+        assertNull(storage.compute(ID, current -> null).join());
+        assertNull(storage.get(ID).join());
+    }
+
+    @Test
+    public void testComputeRetriesConflicts() {
+        ConflictingStorage storage = new ConflictingStorage(2);
+        storage.save(new TestObjectVersioned(ID, 0)).join();
+
+        AtomicInteger calls = new AtomicInteger();
+        TestObjectVersioned value = storage.compute(ID, current -> {
+            calls.incrementAndGet();
+            current.setCount(current.getCount() + 1);
+            return current;
+        }).join();
+
+        assertEquals(3, calls.get());
+        assertEquals(3, storage.replaces.get());
+        assertNotNull(value);
+    }
+
+    @Test
+    public void testComputeGivesUp() {
+        ConflictingStorage storage = new ConflictingStorage(Integer.MAX_VALUE);
+        storage.save(new TestObjectVersioned(ID, 0)).join();
+
+        CompletionException exception = assertThrows(CompletionException.class, () -> storage.compute(ID, current -> current, 3).join());
+        assertTrue(exception.getCause() instanceof VersionConflictException);
+        assertEquals(3, storage.replaces.get());
+    }
+
+    @Test
+    public void testComputeSerializesLocalCalls() {
+        MemoryKVStorage<UUID, TestObjectVersioned> storage = new MemoryKVStorage<>(UUID.class, TestObjectVersioned.class);
+        storage.save(new TestObjectVersioned(ID, 0)).join();
+
+        List<CompletableFuture<TestObjectVersioned>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(storage.compute(ID, current -> {
+                current.setCount(current.getCount() + 1);
+                return current;
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+
+        TestObjectVersioned value = storage.get(ID).join();
+        assertEquals(50, value.getCount());
+        assertEquals(50, value.getVersion());
+    }
+
+    /**
+     * Rejects the first replaces like a storage that was written by another process in the meantime.
+     */
+    private static class ConflictingStorage extends MemoryKVStorage<UUID, TestObjectVersioned> {
+        private final int conflicts;
+        private final AtomicInteger replaces = new AtomicInteger();
+
+        private ConflictingStorage(int conflicts) {
+            super(UUID.class, TestObjectVersioned.class);
+            this.conflicts = conflicts;
+        }
+
+        @Override
+        public CompletableFuture<Boolean> replace(TestObjectVersioned value, Long expectedVersion) {
+            if (replaces.incrementAndGet() <= conflicts) {
+                return CompletableFuture.completedFuture(false);
+            }
+            return super.replace(value, expectedVersion);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package wtf.casper.storageapi;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.misc.DataSourceProvider;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataSourceProviderTests {
+
+    private static final String URL = "jdbc:mariadb://127.0.0.1:1/storageapi_test";
+
+    @Test
+    public void testSharedPoolWarnsOnDifferentSettings() {
+        List<String> warnings = new CopyOnWriteArrayList<>();
+        Logger logger = Logger.getLogger(DataSourceProvider.class.getName());
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                warnings.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        logger.addHandler(handler);
+
+        HikariDataSource first = DataSourceProvider.acquire(config(Credentials.builder().maxPoolSize(5).build()));
+        HikariDataSource second = null;
+        HikariDataSource third = null;
+        try {
+            second = DataSourceProvider.acquire(config(Credentials.builder().maxPoolSize(5).build()));
+            assertSame(first, second);
+            assertTrue(warnings.isEmpty(), warnings.toString());
+
+            third = DataSourceProvider.acquire(config(Credentials.builder().maxPoolSize(5).idleTimeout(60_000L).statementCacheSize(0).build()));
+            assertSame(first, third);
+            assertEquals(1, warnings.size());
+            assertTrue(warnings.get(0).contains("idleTimeout 60000"), warnings.get(0));
+            assertTrue(warnings.get(0).contains("cachePrepStmts false"), warnings.get(0));
+            assertFalse(warnings.get(0).contains("maximumPoolSize"), warnings.get(0));
+        } finally {
+            logger.removeHandler(handler);
+            DataSourceProvider.release(first);
+            if (second != null) {
+                DataSourceProvider.release(second);
+            }
+            if (third != null) {
+                DataSourceProvider.release(third);
+            }
+        }
+        assertTrue(first.isClosed());
+    }
+
+    private static HikariConfig config(Credentials credentials) {
+        HikariConfig config = DataSourceProvider.config("org.mariadb.jdbc.Driver", URL, "test", "test", credentials);
+        // the pool is only compared, it never connects
+        config.setInitializationFailTimeout(-1);
+        return config;
+    }
+}
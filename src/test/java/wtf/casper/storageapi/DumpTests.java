@@ -0,0 +1,38 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.impl.kvstorage.MemoryKVStorage;
+import wtf.casper.storageapi.misc.Dump;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DumpTests {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        MemoryKVStorage<UUID, TestObject> source = new MemoryKVStorage<>(UUID.class, TestObject.class);
+        for (int i = 0; i < 2500; i++) {
+            source.save(new TestObject(UUID.randomUUID(), "Name " + i, i % 80, null)).join();
+        }
+
+        for (Dump.Format format : Dump.Format.values()) {
+            Path path = Files.createTempFile("dump", "." + format.name().toLowerCase());
+            try {
+                assertEquals(2500, (long) source.export(path, format).join());
+
+                MemoryKVStorage<UUID, TestObject> target = new MemoryKVStorage<>(UUID.class, TestObject.class);
+                assertEquals(2500, (long) target.importFrom(path).join());
+                assertEquals(2500, target.allValues().join().size());
+                for (TestObject value : source.allValues().join()) {
+                    assertEquals(value.getName(), target.get(value.getId()).join().getName());
+                }
+            } finally {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
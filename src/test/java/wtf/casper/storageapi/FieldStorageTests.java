@@ -11,10 +11,14 @@ import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 @Log
 public class FieldStorageTests {
@@ -43,19 +47,9 @@ public class FieldStorageTests {
     }
 
     public static void init(Properties properties) {
-        StorageType type = StorageType.valueOf((String) properties.get("storage.type"));
-        credentials = Credentials.builder()
-                .type(type)
-                .host((String) properties.get("storage.host"))
-                .username((String) properties.get("storage.username"))
-                .password((String) properties.get("storage.password"))
-                .database((String) properties.get("storage.database"))
-                .collection((String) properties.get("storage.collection"))
-                .table((String) properties.get("storage.table"))
-                .uri((String) properties.get("storage.uri"))
-                .port(Integer.parseInt((String) properties.get("storage.port")))
-                .build();
-
+        FieldStorageTests.properties = properties;
+        credentials = credentials(properties).build();
+        StorageType type = credentials.getType();
 
         switch (type) {
             case MONGODB -> storage = new DirectMongoFStorage<>(UUID.class, TestObject.class, credentials, TestObject::new);
@@ -71,6 +65,20 @@ public class FieldStorageTests {
         storage.write().join();
     }
 
+    private static Credentials.CredentialsBuilder credentials(Properties properties) {
+        return Credentials.builder()
+                .type(StorageType.valueOf((String) properties.get("storage.type")))
+                .host((String) properties.get("storage.host"))
+                .username((String) properties.get("storage.username"))
+                .password((String) properties.get("storage.password"))
+                .database((String) properties.get("storage.database"))
+                .collection((String) properties.get("storage.collection"))
+                .table((String) properties.get("storage.table"))
+                .uri((String) properties.get("storage.uri"))
+                .port(Integer.parseInt((String) properties.get("storage.port")));
+    }
+
+    private static Properties properties;
     private static Credentials credentials;
     private static FieldStorage<UUID, TestObject> storage;
 
@@ -79,13 +87,15 @@ public class FieldStorageTests {
                     UUID.fromString("00000000-0000-0000-0000-000000000002"), "Mike", 25,
                     new TestObjectData("5678 Elm Avenue", "Fake Employer C", "fakemikec@gmail.com", "987-654-3210",
                             15, new TestObjectBalance(150, "USD")
-                    )
+                    ),
+                    List.of("admin", "staff")
             ),
             new TestObject(
                     UUID.fromString("00000000-0000-0000-0000-000000000003"), "Emily", 22,
                     new TestObjectData("7890 Oak Street", "Fake Employer D", "fakeemilyd@gmail.com", "555-555-5555",
                             17, new TestObjectBalance(50, "USD")
-                    )
+                    ),
+                    List.of("staff")
             ),
             new TestObject(
                     UUID.fromString("00000000-0000-0000-0000-000000000004"), "Michael", 30,
@@ -339,6 +349,187 @@ public class FieldStorageTests {
         assertEquals(6, street.size());
     }
 
+    @Test
+    public void testIn() {
+        Query query = Query.of()
+                .condition(Condition.in("age", List.of(18, 19, 25)));
+        assertEquals(3, storage.get(query).join().size());
+
+        Query query1 = Query.of()
+                .condition(Condition.notIn("age", List.of(18, 19)));
+        assertEquals(14, storage.get(query1).join().size());
+    }
+
+    @Test
+    public void testBetween() {
+        Query query = Query.of()
+                .condition(Condition.between("age", 20, 25));
+        assertEquals(6, storage.get(query).join().size());
+    }
+
+    @Test
+    public void testInString() {
+        Query query = Query.of()
+                .condition(Condition.in("name", List.of("Mike", "Emily", "Nobody")));
+        assertEquals(2, storage.get(query).join().size());
+
+        Query query1 = Query.of()
+                .condition(Condition.notIn("name", List.of("Mike", "Emily")));
+        assertEquals(14, storage.get(query1).join().size());
+    }
+
+    @Test
+    public void testStartsWithIgnoresCase() {
+        // Mike, Michael and Mia
+        assertEquals(3, storage.get(Query.of().condition(Condition.of("name", "mi", ConditionType.STARTS_WITH))).join().size());
+        assertEquals(13, storage.get(Query.of().condition(Condition.of("name", "mi", ConditionType.NOT_STARTS_WITH))).join().size());
+    }
+
+    @Test
+    public void testBetweenString() {
+        Query query = Query.of()
+                .condition(Condition.between("name", "D", "F"));
+        assertEquals(5, storage.get(query).join().size());
+    }
+
+    @Test
+    public void testArrayContains() {
+        // membership of the tags instead of a substring of their json
+        assertEquals(2, storage.get(Query.of().condition(Condition.of("tags", "staff", ConditionType.CONTAINS))).join().size());
+        assertEquals(1, storage.get(Query.of().condition(Condition.of("tags", "admin", ConditionType.CONTAINS))).join().size());
+        assertEquals(0, storage.get(Query.of().condition(Condition.of("tags", "staf", ConditionType.CONTAINS))).join().size());
+        assertEquals(14, storage.get(Query.of().condition(Condition.of("tags", "staff", ConditionType.NOT_CONTAINS))).join().size());
+    }
+
+    @Test
+    public void testNativeJson() {
+        assumeTrue(credentials.getType() == StorageType.MARIADB);
+
+        // converts the data column of the table the other tests use
+        FieldStorage<UUID, TestObject> nativeStorage = new DirectMariaDBFStorage<>(UUID.class, TestObject.class, credentials(properties).nativeJson(true).build(), TestObject::new);
+        assertEquals(initialData.size(), nativeStorage.allValues().join().size());
+        assertEquals(2, nativeStorage.get(Query.of().condition(Condition.of("tags", "staff", ConditionType.CONTAINS))).join().size());
+        assertEquals(15, nativeStorage.get(Query.of().condition(Condition.of("data.balance.currency", "USD", ConditionType.EQUALS))).join().size());
+    }
+
+    @Test
+    public void testTextMatch() {
+        storage.textIndex("name", "data.address").join();
+
+        // the key of a text match is ignored, it searches the fields of the text index
+        assertEquals(2, storage.get(Query.of().condition(Condition.of("name", "Elm", ConditionType.TEXT_MATCH))).join().size());
+        assertEquals(1, storage.get(Query.of().condition(Condition.of("name", "Sophia", ConditionType.TEXT_MATCH))).join().size());
+
+        // every avenue matches, the two on maple match both words
+        Query query = Query.of()
+                .condition(Condition.of("name", "Maple Avenue", ConditionType.TEXT_MATCH))
+                .sort(Sort.relevance())
+                .limit(2);
+        Set<String> names = storage.get(query).join().stream().map(TestObject::getName).collect(Collectors.toSet());
+        assertEquals(Set.of("Michael", "Emma"), names);
+    }
+
+    @Test
+    public void testIgnoreCase() {
+        // without the index the lowercased field is compared, with it the indexed column
+        assertIgnoreCase();
+        storage.indexIgnoreCase("name").join();
+        try {
+            assertIgnoreCase();
+        } finally {
+            storage.unindex("name").join();
+        }
+    }
+
+    private void assertIgnoreCase() {
+        assertEquals(1, storage.get(Query.of().condition(Condition.of("name", "mIKE", ConditionType.EQUALS_IGNORE_CASE))).join().size());
+        // Mike, Michael and Mia
+        assertEquals(3, storage.get(Query.of().condition(Condition.of("name", "MI", ConditionType.STARTS_WITH_IGNORE_CASE))).join().size());
+        assertEquals(0, storage.get(Query.of().condition(Condition.of("name", "mik_", ConditionType.STARTS_WITH_IGNORE_CASE))).join().size());
+    }
+
+    @Test
+    public void testExistsAndIsNull() {
+        assertEquals(16, storage.get(Query.of().condition(Condition.exists("name", true))).join().size());
+        assertEquals(0, storage.get(Query.of().condition(Condition.exists("nickname", true))).join().size());
+        assertEquals(16, storage.get(Query.of().condition(Condition.isNull("nickname"))).join().size());
+    }
+
+    @Test
+    public void testExpression() {
+        Query query = Query.of().where(Expression.and(
+                Expression.or(Condition.of("age", 20, ConditionType.LESS_THAN), Condition.of("age", 32, ConditionType.GREATER_THAN)),
+                Expression.not(Condition.of("name", "Jane", ConditionType.EQUALS))
+        ));
+        assertEquals(2, storage.get(query).join().size());
+    }
+
+    @Test
+    public void testSortWithLimit() {
+        Query query = Query.of()
+                .sort(new Sort("data.balance.currency", SortingType.ASCENDING))
+                .sort(new Sort("age", SortingType.DESCENDING))
+                .limit(3)
+                .offset(1);
+        List<Integer> ages = storage.get(query).join().stream().map(TestObject::getAge).toList();
+        assertEquals(List.of(33, 32, 31), ages);
+    }
+
+    @Test
+    public void testDistinct() {
+        List<String> currencies = storage.distinct("data.balance.currency", Query.of(), String.class).join();
+        assertEquals(2, currencies.size());
+
+        Query query = Query.of().condition(Condition.of("age", 19, ConditionType.LESS_THAN));
+        assertEquals(1, storage.distinct("data.balance.currency", query, String.class).join().size());
+
+        // values that only differ in case are distinct
+        TestObject lowercase = new TestObject(UUID.fromString("00000000-0000-0000-0000-000000000099"), "Noah", 40,
+                new TestObjectData("1010 Spruce Street", "Fake Employer Q", "fakenoahq@gmail.com", "010-101-0101",
+                        12, new TestObjectBalance(60, "usd")
+                )
+        );
+        storage.save(lowercase).join();
+        try {
+            List<String> mixedCase = storage.distinct("data.balance.currency", Query.of(), String.class).join();
+            assertEquals(3, mixedCase.size());
+            assertTrue(mixedCase.containsAll(List.of("USD", "usd", "GBP")), mixedCase.toString());
+        } finally {
+            storage.remove(Query.of().condition(Condition.of("name", lowercase.getName(), ConditionType.EQUALS))).join();
+        }
+    }
+
+    @Test
+    public void testCount() {
+        Query query = Query.of().condition(Condition.of("age", 20, ConditionType.GREATER_THAN_OR_EQUAL_TO));
+        assertEquals(14, (long) storage.count(query).join());
+        // limit and offset don't change the count
+        assertEquals(14, (long) storage.count(query.limit(5).offset(3)).join());
+        assertEquals(0, (long) storage.count(Query.of().condition(Condition.of("name", "Nobody", ConditionType.EQUALS))).join());
+        assertTrue(storage.estimatedCount().join() >= 0);
+    }
+
+    @Test
+    public void testGetWithTotal() {
+        Query query = Query.of()
+                .condition(Condition.of("age", 20, ConditionType.GREATER_THAN_OR_EQUAL_TO))
+                .sort(new Sort("age", SortingType.ASCENDING))
+                .limit(5)
+                .offset(10);
+        Page<TestObject> page = storage.getWithTotal(query).join();
+        assertEquals(4, page.values().size());
+        assertEquals(14, page.total());
+
+        // a page past the end still knows the total
+        Page<TestObject> pastTheEnd = storage.getWithTotal(query.offset(20)).join();
+        assertTrue(pastTheEnd.values().isEmpty());
+        assertEquals(14, pastTheEnd.total());
+
+        Page<TestObject> empty = storage.getWithTotal(Query.of().condition(Condition.of("name", "Nobody", ConditionType.EQUALS))).join();
+        assertTrue(empty.values().isEmpty());
+        assertEquals(0, empty.total());
+    }
+
     @Test
     public void testLimit() {
         Query query = Query.of()
@@ -6,15 +6,20 @@ import org.junit.jupiter.api.Test;
 import wtf.casper.storageapi.impl.direct.kvstorage.DirectMariaDBKVStorage;
 import wtf.casper.storageapi.impl.direct.kvstorage.DirectMongoKVStorage;
 import wtf.casper.storageapi.impl.direct.kvstorage.DirectSQLKVStorage;
+import wtf.casper.storageapi.impl.kvstorage.MemoryKVStorage;
+import wtf.casper.storageapi.misc.SchemaTransform;
 
 import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.stream.LongStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @Log
 //TODO: make stateless version of tests
@@ -46,18 +51,7 @@ public class KVStorageTests {
 
     public static void init(Properties properties) {
         StorageType type = StorageType.valueOf((String) properties.get("storage.type"));
-        credentials = Credentials.builder()
-                .type(type)
-                .host((String) properties.get("storage.host"))
-                .username((String) properties.get("storage.username"))
-                .password((String) properties.get("storage.password"))
-                .database((String) properties.get("storage.database"))
-                .collection((String) properties.get("storage.collection"))
-                .table((String) properties.get("storage.table"))
-                .uri((String) properties.get("storage.uri"))
-                .port(Integer.parseInt((String) properties.get("storage.port")))
-                .build();
-
+        credentials = credentials(properties, "");
 
         switch (type) {
             case MONGODB -> storage = new DirectMongoKVStorage<>(UUID.class, TestObject.class, credentials, TestObject::new);
@@ -66,6 +60,23 @@ public class KVStorageTests {
             default -> throw new IllegalStateException("Unexpected value: " + type);
         }
 
+        // numeric keys live in their own collection, they would be mixed with the uuid keys of the other tests
+        Credentials numberedCredentials = credentials(properties, "_numbered");
+        switch (type) {
+            case MONGODB -> numbered = new DirectMongoKVStorage<>(Long.class, TestObjectNumbered.class, numberedCredentials, TestObjectNumbered::new);
+            case MYSQL -> numbered = new DirectSQLKVStorage<>(Long.class, TestObjectNumbered.class, numberedCredentials, TestObjectNumbered::new);
+            case MARIADB -> numbered = new DirectMariaDBKVStorage<>(Long.class, TestObjectNumbered.class, numberedCredentials, TestObjectNumbered::new);
+            default -> throw new IllegalStateException("Unexpected value: " + type);
+        }
+
+        Credentials versionedCredentials = credentials(properties, "_versioned");
+        switch (type) {
+            case MONGODB -> versioned = new DirectMongoKVStorage<>(UUID.class, TestObjectVersioned.class, versionedCredentials, TestObjectVersioned::new);
+            case MYSQL -> versioned = new DirectSQLKVStorage<>(UUID.class, TestObjectVersioned.class, versionedCredentials, TestObjectVersioned::new);
+            case MARIADB -> versioned = new DirectMariaDBKVStorage<>(UUID.class, TestObjectVersioned.class, versionedCredentials, TestObjectVersioned::new);
+            default -> throw new IllegalStateException("Unexpected value: " + type);
+        }
+
         switch (type) {
             case MONGODB -> storageOther = new DirectMongoKVStorage<>(UUID.class, TestObjectOther.class, credentials, TestObjectOther::new);
             case MYSQL -> storageOther = new DirectSQLKVStorage<>(UUID.class, TestObjectOther.class, credentials, TestObjectOther::new);
@@ -78,9 +89,25 @@ public class KVStorageTests {
         storage.write().join();
     }
 
+    private static Credentials credentials(Properties properties, String suffix) {
+        return Credentials.builder()
+                .type(StorageType.valueOf((String) properties.get("storage.type")))
+                .host((String) properties.get("storage.host"))
+                .username((String) properties.get("storage.username"))
+                .password((String) properties.get("storage.password"))
+                .database((String) properties.get("storage.database"))
+                .collection(properties.get("storage.collection") + suffix)
+                .table(properties.get("storage.table") + suffix)
+                .uri((String) properties.get("storage.uri"))
+                .port(Integer.parseInt((String) properties.get("storage.port")))
+                .build();
+    }
+
     private static Credentials credentials;
     private static KeyedStorage<UUID, TestObject> storage;
     private static KeyedStorage<UUID, TestObjectOther> storageOther;
+    private static KeyedStorage<Long, TestObjectNumbered> numbered;
+    private static KeyedStorage<UUID, TestObjectVersioned> versioned;
 
     private static final List<TestObject> initialData = List.of(
             new TestObject(
@@ -326,4 +353,75 @@ public class KVStorageTests {
         storage.remove(testObject).join();
     }
 
+    @Test
+    public void testChunksOfNumericKeys() {
+        numbered.deleteAll().join();
+        List<TestObjectNumbered> values = LongStream.range(0, 25).mapToObj(i -> new TestObjectNumbered(i, "Name " + i)).toList();
+        numbered.saveAll(values).join();
+
+        // every chunk after the first one is read with the cursor of the previous one
+        MemoryKVStorage<Long, TestObjectNumbered> copy = new MemoryKVStorage<>(Long.class, TestObjectNumbered.class);
+        assertEquals(25, (long) copy.migration(numbered).chunkSize(10).build().run().join());
+        assertEquals(25, copy.allValues().join().size());
+
+        int keys = 0;
+        String cursor = null;
+        do {
+            Chunk<String> chunk = numbered.keys(cursor, 10).join();
+            keys += chunk.values().size();
+            cursor = chunk.cursor();
+        } while (cursor != null);
+        assertEquals(25, keys);
+
+        numbered.deleteAll().join();
+    }
+
+    @Test
+    public void testRenameFieldOfNumericKeys() {
+        numbered.deleteAll().join();
+        numbered.saveAll(LongStream.range(0, 25).mapToObj(i -> new TestObjectNumbered(i, "Name " + i)).toList()).join();
+
+        // renames are applied per range of ids, every range has to match
+        assertEquals(25, (long) numbered.transform(SchemaTransform.builder().rename("name", "nameOther").chunkSize(10).build()).join());
+        for (TestObjectNumbered value : numbered.allValues().join()) {
+            assertEquals(null, value.getName());
+        }
+
+        numbered.renameField("nameOther", "name").join();
+        assertEquals(new TestObjectNumbered(24L, "Name 24"), numbered.get(24L).join());
+
+        numbered.deleteAll().join();
+    }
+
+    @Test
+    public void testChangedSince() throws InterruptedException {
+        versioned.deleteAll().join();
+        List<TestObjectVersioned> values = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            values.add(new TestObjectVersioned(UUID.randomUUID(), i));
+        }
+        versioned.saveAll(values).join();
+
+        Thread.sleep(10);
+        long since = System.currentTimeMillis();
+        Thread.sleep(10);
+        for (TestObjectVersioned value : values.subList(0, 12)) {
+            value.setCount(value.getCount() + 100);
+            versioned.save(value).join();
+        }
+
+        int changed = 0;
+        String cursor = null;
+        do {
+            Chunk<TestObjectVersioned> chunk = versioned.changedSince(since, cursor, 5).join();
+            for (TestObjectVersioned value : chunk.values()) {
+                assertTrue(value.getCount() >= 100);
+            }
+            changed += chunk.values().size();
+            cursor = chunk.cursor();
+        } while (cursor != null);
+        assertEquals(12, changed);
+
+        versioned.deleteAll().join();
+    }
 }
@@ -0,0 +1,75 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.impl.kvstorage.MemoryKVStorage;
+import wtf.casper.storageapi.misc.KeyFilter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeyFilterTests {
+
+    @Test
+    public void testEverythingMightBePresentUntilBuilt() {
+        KeyFilter filter = new KeyFilter(1000);
+        assertTrue(filter.mightContain(UUID.randomUUID()));
+        assertTrue(filter.mightContain(null));
+    }
+
+    @Test
+    public void testBuildFromKeys() {
+        MemoryKVStorage<UUID, TestObject> storage = new MemoryKVStorage<>(UUID.class, TestObject.class);
+        List<UUID> ids = new ArrayList<>();
+        for (int i = 0; i < 25_000; i++) {
+            UUID id = UUID.randomUUID();
+            ids.add(id);
+            storage.save(new TestObject(id, "Name " + i, i % 80, null)).join();
+        }
+
+        KeyFilter filter = new KeyFilter(30_000);
+        assertEquals(25_000, (long) filter.build(storage::keys).join());
+        for (UUID id : ids) {
+            assertTrue(filter.mightContain(id));
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 10_000; i++) {
+            if (filter.mightContain(UUID.randomUUID())) {
+                falsePositives++;
+            }
+        }
+        // built for a 1% false positive rate
+        assertTrue(falsePositives < 300, "false positives: " + falsePositives);
+    }
+
+    @Test
+    public void testPutAfterBuild() {
+        KeyFilter filter = new KeyFilter(1000);
+        filter.build(new MemoryKVStorage<>(UUID.class, TestObject.class)::keys).join();
+
+        UUID id = UUID.randomUUID();
+        assertFalse(filter.mightContain(id));
+        filter.put(id);
+        assertTrue(filter.mightContain(id));
+        assertTrue(filter.mightContain(id.toString()));
+    }
+
+    @Test
+    public void testFailedBuildIsNotReady() {
+        KeyFilter filter = new KeyFilter(1000);
+        AtomicInteger reads = new AtomicInteger();
+        CompletableFuture<Long> build = filter.build((cursor, limit) -> reads.getAndIncrement() == 0
+                ? CompletableFuture.completedFuture(new Chunk<>(List.of(UUID.randomUUID().toString()), "cursor"))
+                : CompletableFuture.failedFuture(new IllegalStateException("storage unavailable")));
+
+        assertThrows(CompletionException.class, build::join);
+        // the keys after the failed chunk were never seen
+        assertTrue(filter.mightContain(UUID.randomUUID()));
+    }
+}
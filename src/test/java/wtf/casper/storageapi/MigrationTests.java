@@ -0,0 +1,98 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.impl.kvstorage.MemoryKVStorage;
+import wtf.casper.storageapi.misc.Migration;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MigrationTests {
+
+    @Test
+    public void testResumeFromCheckpoint() throws Exception {
+        MemoryKVStorage<UUID, TestObject> source = source(2500);
+        FailingStorage target = new FailingStorage(2);
+        Path directory = Files.createTempDirectory("migration");
+        Path checkpoint = directory.resolve("migration.checkpoint");
+        try {
+            Migration<TestObject> migration = target.migration(source)
+                    .chunkSize(500)
+                    .writers(1)
+                    .checkpoint(checkpoint)
+                    .build();
+
+            assertThrows(CompletionException.class, () -> migration.run().join());
+            assertTrue(Files.exists(checkpoint));
+            assertEquals("1000", Files.readAllLines(checkpoint).get(1));
+            assertEquals(1000, target.allValues().join().size());
+
+            target.failAfter = -1;
+            target.saved.set(0);
+            assertEquals(2500, (long) migration.run().join());
+            // the chunks written before the failure are not written again
+            assertEquals(1500, target.saved.get());
+            assertEquals(2500, target.allValues().join().size());
+            assertFalse(Files.exists(checkpoint));
+        } finally {
+            Files.deleteIfExists(checkpoint);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void testTotalFromCount() {
+        MemoryKVStorage<UUID, TestObject> source = source(2500);
+        MemoryKVStorage<UUID, TestObject> target = new MemoryKVStorage<>(UUID.class, TestObject.class);
+        List<Migration.Progress> progress = new CopyOnWriteArrayList<>();
+
+        assertEquals(2500, (long) target.migration(source)
+                .chunkSize(500)
+                .progress(progress::add)
+                .build()
+                .run()
+                .join());
+
+        assertEquals(5, progress.size());
+        Migration.Progress last = progress.stream().filter(p -> p.migrated() == 2500).findFirst().orElseThrow();
+        assertEquals(2500, last.total());
+        assertNotNull(last.eta());
+    }
+
+    private static MemoryKVStorage<UUID, TestObject> source(int size) {
+        MemoryKVStorage<UUID, TestObject> source = new MemoryKVStorage<>(UUID.class, TestObject.class);
+        for (int i = 0; i < size; i++) {
+            source.save(new TestObject(UUID.randomUUID(), "Name " + i, i % 80, null)).join();
+        }
+        return source;
+    }
+
+    private static final class FailingStorage extends MemoryKVStorage<UUID, TestObject> {
+        private final AtomicInteger batches = new AtomicInteger();
+        private final AtomicInteger saved = new AtomicInteger();
+        private volatile int failAfter;
+
+        private FailingStorage(int failAfter) {
+            super(UUID.class, TestObject.class);
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public CompletableFuture<Void> saveAll(Collection<TestObject> values) {
+            if (failAfter >= 0 && batches.getAndIncrement() >= failAfter) {
+                return CompletableFuture.failedFuture(new IllegalStateException("target unavailable"));
+            }
+            saved.addAndGet(values.size());
+            return super.saveAll(values);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.misc.PayloadCodec;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PayloadCodecTests {
+
+    private static final UUID ID = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    @Test
+    public void testRoundTrip() {
+        String json = StorageAPIConstants.getGson().toJson(new TestObject(ID, "Jöhn ✓", 18, new TestObjectData("123 Fake Street", "Walmart", "test@test.com", "123-456-7890", 18, new TestObjectBalance(100, "USD"))));
+        for (String algorithm : new String[]{"lz4", "zstd"}) {
+            byte[] payload = new PayloadCodec(algorithm, 64).encode(json);
+            assertTrue(payload.length < json.getBytes(StandardCharsets.UTF_8).length, algorithm);
+            assertEquals(json, PayloadCodec.decode(payload), algorithm);
+        }
+    }
+
+    @Test
+    public void testSmallValuesStayRaw() {
+        String json = "{\"name\":\"John\"}";
+        byte[] payload = new PayloadCodec("zstd", 1024).encode(json);
+        assertEquals(0, payload[0]);
+        assertEquals(json.length() + 1, payload.length);
+        assertEquals(json, PayloadCodec.decode(payload));
+    }
+
+    @Test
+    public void testRowsWithoutHeader() {
+        // rows written before compression was enabled
+        String json = "{\"name\":\"John\"}";
+        assertEquals(json, PayloadCodec.decode(json.getBytes(StandardCharsets.UTF_8)));
+        assertEquals("", PayloadCodec.decode(new byte[0]));
+    }
+
+    @Test
+    public void testUnknownAlgorithm() {
+        assertThrows(IllegalArgumentException.class, () -> new PayloadCodec("gzip", 0));
+        assertThrows(IllegalArgumentException.class, () -> PayloadCodec.decode(new byte[]{9, 1, 2}));
+    }
+}
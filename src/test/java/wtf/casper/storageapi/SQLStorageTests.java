@@ -0,0 +1,130 @@
+package wtf.casper.storageapi;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.impl.kvstorage.MemoryKVStorage;
+import wtf.casper.storageapi.misc.SQLStorage;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SQLStorageTests {
+
+    @Test
+    public void testFailedReadsAreNotTheEnd() {
+        UnreachableStorage storage = new UnreachableStorage();
+        CompletionException exception = assertThrows(CompletionException.class, () -> storage.chunk(null, 10).join());
+        assertTrue(exception.getCause() instanceof SQLException);
+        assertThrows(CompletionException.class, () -> storage.changedSince(0, null, 10).join());
+        assertThrows(CompletionException.class, () -> storage.keys(null, 10).join());
+
+        // a migration must fail instead of finishing with nothing copied
+        MemoryKVStorage<UUID, TestObject> target = new MemoryKVStorage<>(UUID.class, TestObject.class);
+        assertThrows(CompletionException.class, () -> target.migration(storage).build().run().join());
+    }
+
+    @Test
+    public void testReadsGoToTheReplicas() {
+        UnreachableStorage storage = new UnreachableStorage(true);
+        assertFalse(storage.readsPrimary());
+        assertTrue(new UnreachableStorage().readsPrimary());
+
+        storage.get(UUID.randomUUID()).join();
+        assertEquals(0, storage.primary.connections.get());
+        assertEquals(1, storage.replicas.connections.get());
+
+        assertThrows(CompletionException.class, () -> storage.chunk(null, 10).join());
+        assertEquals(0, storage.primary.connections.get());
+        assertEquals(2, storage.replicas.connections.get());
+    }
+
+    @Test
+    public void testPrimaryReadsSkipTheReplicas() {
+        UnreachableStorage storage = new UnreachableStorage(true);
+
+        storage.get(UUID.randomUUID(), true).join();
+        assertEquals(1, storage.primary.connections.get());
+        assertEquals(0, storage.replicas.connections.get());
+
+        // keys feed the bloom filter, a lagging replica would leave out keys that exist
+        assertThrows(CompletionException.class, () -> storage.keys(null, 10).join());
+        assertEquals(2, storage.primary.connections.get());
+        assertEquals(0, storage.replicas.connections.get());
+    }
+
+    private static final class UnreachableDataSource extends HikariDataSource {
+        private final AtomicInteger connections = new AtomicInteger();
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            connections.incrementAndGet();
+            throw new SQLException("database unavailable");
+        }
+    }
+
+    private static final class UnreachableStorage implements SQLStorage<UUID, TestObject> {
+        private final UnreachableDataSource primary = new UnreachableDataSource();
+        private final UnreachableDataSource replicas;
+
+        private UnreachableStorage() {
+            this(false);
+        }
+
+        private UnreachableStorage(boolean replicated) {
+            this.replicas = replicated ? new UnreachableDataSource() : primary;
+        }
+
+        @Override
+        public HikariDataSource dataSource() {
+            return primary;
+        }
+
+        @Override
+        public HikariDataSource readDataSource() {
+            return replicas;
+        }
+
+        @Override
+        public String table() {
+            return "values";
+        }
+
+        @Override
+        public Logger logger() {
+            return Logger.getLogger(SQLStorageTests.class.getName());
+        }
+
+        @Override
+        public Class<UUID> key() {
+            return UUID.class;
+        }
+
+        @Override
+        public Class<TestObject> value() {
+            return TestObject.class;
+        }
+
+        @Override
+        public CompletableFuture<Void> write() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> deleteAll() {
+            return CompletableFuture.failedFuture(new UnsupportedOperationException());
+        }
+
+        @Override
+        public CompletableFuture<Collection<TestObject>> allValues() {
+            return CompletableFuture.failedFuture(new UnsupportedOperationException());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package wtf.casper.storageapi;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.impl.kvstorage.MemoryKVStorage;
+import wtf.casper.storageapi.misc.SchemaTransform;
+
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SchemaTransformTests {
+
+    @Test
+    public void testApply() {
+        SchemaTransform transform = SchemaTransform.builder()
+                .rename("name", "profile.displayName")
+                .renames(Map.of("data.balance.amount", "data.balance.value"))
+                .remove("legacy")
+                .transform(json -> {
+                    json.addProperty("schema", 2);
+                    return json;
+                })
+                .build();
+        assertFalse(transform.isNative());
+        assertEquals(500, transform.chunkSize());
+
+        JsonObject json = JsonParser.parseString("{\"name\":\"John\",\"legacy\":true,\"data\":{\"balance\":{\"amount\":100}}}").getAsJsonObject();
+        JsonObject result = transform.apply(json);
+        assertEquals("John", result.getAsJsonObject("profile").get("displayName").getAsString());
+        assertFalse(result.has("name"));
+        assertFalse(result.has("legacy"));
+        assertEquals(100, result.getAsJsonObject("data").getAsJsonObject("balance").get("value").getAsInt());
+        assertEquals(2, result.get("schema").getAsInt());
+    }
+
+    @Test
+    public void testMissingPathsAreLeftAlone() {
+        SchemaTransform transform = SchemaTransform.builder()
+                .rename("missing.path", "other")
+                .remove("also.missing")
+                .build();
+        assertTrue(transform.isNative());
+
+        JsonObject result = transform.apply(JsonParser.parseString("{\"name\":\"John\",\"also\":1}").getAsJsonObject());
+        assertEquals("{\"name\":\"John\",\"also\":1}", result.toString());
+    }
+
+    @Test
+    public void testRunInChunks() {
+        MemoryKVStorage<UUID, TestObject> storage = new MemoryKVStorage<>(UUID.class, TestObject.class);
+        for (int i = 0; i < 1200; i++) {
+            storage.save(new TestObject(UUID.randomUUID(), "Name " + i, i % 80, new TestObjectData("123 Fake Street", "Walmart", "test@test.com", "123-456-7890", 18, new TestObjectBalance(100, "USD")))).join();
+        }
+
+        long visited = storage.transform(SchemaTransform.builder()
+                .remove("data")
+                .transform(json -> {
+                    json.addProperty("age", json.get("age").getAsInt() + 100);
+                    return json;
+                })
+                .chunkSize(250)
+                .build()).join();
+
+        assertEquals(1200, visited);
+        for (TestObject value : storage.allValues().join()) {
+            assertNull(value.getData());
+            assertTrue(value.getAge() >= 100);
+        }
+    }
+}
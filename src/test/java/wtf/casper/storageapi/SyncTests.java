@@ -0,0 +1,109 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.impl.kvstorage.MemoryKVStorage;
+import wtf.casper.storageapi.misc.Sync;
+import wtf.casper.storageapi.utils.StorageAPIConstants;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SyncTests {
+
+    @Test
+    public void testOnlyChangedValuesAreCopied() throws Exception {
+        MemoryKVStorage<UUID, TestObjectVersioned> source = new MemoryKVStorage<>(UUID.class, TestObjectVersioned.class);
+        MemoryKVStorage<UUID, TestObjectVersioned> target = new MemoryKVStorage<>(UUID.class, TestObjectVersioned.class);
+        List<TestObjectVersioned> values = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            TestObjectVersioned value = new TestObjectVersioned(UUID.randomUUID(), i);
+            values.add(value);
+            source.save(value).join();
+        }
+
+        Path directory = Files.createTempDirectory("sync");
+        Path watermark = directory.resolve("sync.watermark");
+        try {
+            Thread.sleep(5);
+            assertEquals(100, (long) sync(source, target, watermark).run().join());
+            assertEquals(100, target.allValues().join().size());
+            assertTrue(Files.exists(watermark));
+
+            Thread.sleep(5);
+            Sync<TestObjectVersioned> sync = sync(source, target, watermark);
+            // the watermark of the previous run is read from the file
+            assertEquals(0, (long) sync.run().join());
+
+            for (int i = 0; i < 10; i++) {
+                TestObjectVersioned value = values.get(i);
+                value.setCount(value.getCount() + 1000);
+                source.save(value).join();
+            }
+            Thread.sleep(5);
+            assertEquals(10, (long) sync.run().join());
+            assertEquals(1000, target.get(values.get(0).getId()).join().getCount());
+            assertEquals(0, (long) sync.run().join());
+        } finally {
+            Files.deleteIfExists(watermark);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void testScheduleSurvivesUnreadableWatermark() throws Exception {
+        MemoryKVStorage<UUID, TestObjectVersioned> source = new MemoryKVStorage<>(UUID.class, TestObjectVersioned.class);
+        MemoryKVStorage<UUID, TestObjectVersioned> target = new MemoryKVStorage<>(UUID.class, TestObjectVersioned.class);
+        for (int i = 0; i < 10; i++) {
+            source.save(new TestObjectVersioned(UUID.randomUUID(), i)).join();
+        }
+
+        Path directory = Files.createTempDirectory("sync");
+        Path watermark = directory.resolve("sync.watermark");
+        Files.writeString(watermark, "not a number");
+        ScheduledFuture<?> scheduled = null;
+        try {
+            Sync<TestObjectVersioned> sync = sync(source, target, watermark);
+            assertThrows(CompletionException.class, () -> sync.run().join());
+
+            scheduled = sync.schedule(Duration.ofMillis(20));
+            Thread.sleep(100);
+            assertFalse(scheduled.isDone());
+            assertTrue(target.allValues().join().isEmpty());
+
+            // the next run after the file was fixed copies the values
+            Files.writeString(watermark, "0");
+            long deadline = System.currentTimeMillis() + 5000;
+            while (target.allValues().join().size() < 10 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(10, target.allValues().join().size());
+        } finally {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            Files.deleteIfExists(watermark.resolveSibling("sync.watermark.tmp"));
+            Files.deleteIfExists(watermark);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    // copies the values so saving them in the target doesn't stamp the source values
+    private static Sync<TestObjectVersioned> sync(MemoryKVStorage<UUID, TestObjectVersioned> source, MemoryKVStorage<UUID, TestObjectVersioned> target, Path watermark) {
+        return Sync.<TestObjectVersioned>builder()
+                .source(source::changedSince)
+                .target(values -> target.saveAll(values.stream()
+                        .map(value -> StorageAPIConstants.getGson().fromJson(StorageAPIConstants.getGson().toJson(value), TestObjectVersioned.class))
+                        .toList()))
+                .overlap(Duration.ZERO)
+                .watermark(watermark)
+                .build();
+    }
+}
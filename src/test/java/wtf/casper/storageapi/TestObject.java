@@ -27,6 +27,7 @@ public class TestObject {
     };
     private List<TestObjectData> emptyDataList = List.of();
     private TestObjectData[] emptyDataArray = new TestObjectData[] {};
+    private List<String> tags = List.of();
 
     public TestObject(final UUID id) {
         this.id = id;
@@ -39,6 +40,11 @@ public class TestObject {
         this.data = data;
     }
 
+    public TestObject(final UUID id, final String name, final int age, final TestObjectData data, final List<String> tags) {
+        this(id, name, age, data);
+        this.tags = tags;
+    }
+
     @Override
     public String toString() {
         return "TestObject{" +
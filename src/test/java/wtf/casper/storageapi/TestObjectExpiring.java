@@ -0,0 +1,30 @@
+package wtf.casper.storageapi;
+
+import lombok.Getter;
+import wtf.casper.storageapi.id.Id;
+import wtf.casper.storageapi.id.StorageSerialized;
+import wtf.casper.storageapi.id.TimeToLive;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@Getter @StorageSerialized
+@TimeToLive(value = 200, unit = TimeUnit.MILLISECONDS)
+public class TestObjectExpiring {
+    @Id
+    private final UUID id;
+    private final String name;
+
+    public TestObjectExpiring(final UUID id, final String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return "TestObjectExpiring{" +
+                "id=" + id +
+                ", name='" + name + '\'' +
+                '}';
+    }
+}
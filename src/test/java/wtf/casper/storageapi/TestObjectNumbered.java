@@ -0,0 +1,30 @@
+package wtf.casper.storageapi;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import wtf.casper.storageapi.id.Id;
+import wtf.casper.storageapi.id.StorageSerialized;
+
+@Getter @EqualsAndHashCode @StorageSerialized
+public class TestObjectNumbered {
+    @Id
+    private final Long id;
+    private final String name;
+
+    public TestObjectNumbered(final Long id) {
+        this(id, null);
+    }
+
+    public TestObjectNumbered(final Long id, final String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return "TestObjectNumbered{" +
+                "id=" + id +
+                ", name='" + name + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,40 @@
+package wtf.casper.storageapi;
+
+import lombok.Getter;
+import lombok.Setter;
+import wtf.casper.storageapi.id.Id;
+import wtf.casper.storageapi.id.StorageSerialized;
+import wtf.casper.storageapi.id.UpdatedAt;
+import wtf.casper.storageapi.id.Version;
+
+import java.util.UUID;
+
+@Getter @Setter @StorageSerialized
+public class TestObjectVersioned {
+    @Id
+    private final UUID id;
+    @Version
+    private long version;
+    @UpdatedAt
+    private long updatedAt;
+    private int count;
+
+    public TestObjectVersioned(final UUID id) {
+        this.id = id;
+    }
+
+    public TestObjectVersioned(final UUID id, final int count) {
+        this.id = id;
+        this.count = count;
+    }
+
+    @Override
+    public String toString() {
+        return "TestObjectVersioned{" +
+                "id=" + id +
+                ", version=" + version +
+                ", updatedAt=" + updatedAt +
+                ", count=" + count +
+                '}';
+    }
+}
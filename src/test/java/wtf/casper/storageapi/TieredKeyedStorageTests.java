@@ -0,0 +1,45 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.impl.kvstorage.MemoryKVStorage;
+import wtf.casper.storageapi.impl.kvstorage.TieredKeyedStorage;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TieredKeyedStorageTests {
+
+    private static final UUID ID = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    @Test
+    public void testPromoteOnRead() {
+        MemoryKVStorage<UUID, TestObject> hot = new MemoryKVStorage<>(UUID.class, TestObject.class);
+        MemoryKVStorage<UUID, TestObject> cold = new MemoryKVStorage<>(UUID.class, TestObject.class);
+        TieredKeyedStorage<UUID, TestObject> storage = new TieredKeyedStorage<>(UUID.class, TestObject.class, hot, cold, Duration.ofMinutes(5));
+
+        cold.save(new TestObject(ID, "Jane", 19, null)).join();
+        assertNull(hot.get(ID).join());
+
+        assertEquals("Jane", storage.get(ID).join().getName());
+        assertNotNull(hot.get(ID).join());
+        storage.close().join();
+    }
+
+    @Test
+    public void testWriteThroughAndDemote() throws InterruptedException {
+        MemoryKVStorage<UUID, TestObject> hot = new MemoryKVStorage<>(UUID.class, TestObject.class);
+        MemoryKVStorage<UUID, TestObject> cold = new MemoryKVStorage<>(UUID.class, TestObject.class);
+        TieredKeyedStorage<UUID, TestObject> storage = new TieredKeyedStorage<>(UUID.class, TestObject.class, hot, cold, Duration.ofMillis(100));
+
+        storage.save(new TestObject(ID, "John", 18, null)).join();
+        assertNotNull(hot.get(ID).join());
+        assertNotNull(cold.get(ID).join());
+
+        Thread.sleep(2500);
+        assertNull(hot.get(ID).join());
+        assertEquals("John", storage.get(ID).join().getName());
+        storage.close().join();
+    }
+}
@@ -0,0 +1,57 @@
+package wtf.casper.storageapi;
+
+import org.junit.jupiter.api.Test;
+import wtf.casper.storageapi.impl.kvstorage.MemoryKVStorage;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimeToLiveTests {
+
+    private static final UUID ID = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final UUID OTHER_ID = UUID.fromString("00000000-0000-0000-0000-000000000002");
+
+    @Test
+    public void testExpiresAfterTtl() throws InterruptedException {
+        MemoryKVStorage<UUID, TestObject> storage = new MemoryKVStorage<>(UUID.class, TestObject.class);
+        storage.save(new TestObject(ID, "John", 18, null), Duration.ofMillis(200)).join();
+        storage.save(new TestObject(OTHER_ID, "Jane", 19, null)).join();
+
+        assertEquals("John", storage.get(ID).join().getName());
+        assertTrue(storage.contains(ID).join());
+
+        Thread.sleep(400);
+        assertNull(storage.get(ID).join());
+        assertFalse(storage.contains(ID).join());
+        assertEquals(1, storage.allValues().join().size());
+        assertEquals("Jane", storage.get(OTHER_ID).join().getName());
+    }
+
+    @Test
+    public void testSaveWithoutTtlKeepsValue() throws InterruptedException {
+        MemoryKVStorage<UUID, TestObject> storage = new MemoryKVStorage<>(UUID.class, TestObject.class);
+        storage.save(new TestObject(ID, "John", 18, null), Duration.ofMillis(200)).join();
+        storage.save(new TestObject(ID, "John", 19, null)).join();
+
+        Thread.sleep(400);
+        assertEquals(19, storage.get(ID).join().getAge());
+    }
+
+    @Test
+    public void testTimeToLiveOfClass() throws InterruptedException {
+        MemoryKVStorage<UUID, TestObjectExpiring> storage = new MemoryKVStorage<>(UUID.class, TestObjectExpiring.class);
+        storage.save(new TestObjectExpiring(ID, "John")).join();
+        assertNotNull(storage.get(ID).join());
+
+        // every save starts the time again
+        Thread.sleep(120);
+        storage.save(new TestObjectExpiring(ID, "John")).join();
+        Thread.sleep(120);
+        assertNotNull(storage.get(ID).join());
+
+        Thread.sleep(200);
+        assertNull(storage.get(ID).join());
+    }
+}